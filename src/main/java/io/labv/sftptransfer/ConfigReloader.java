@@ -0,0 +1,177 @@
+package io.labv.sftptransfer;
+
+import io.labv.sftptransfer.config.Config;
+import io.labv.sftptransfer.core.FolderScheduler;
+import io.labv.sftptransfer.core.SftpUploader;
+import io.labv.sftptransfer.core.UploaderState;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Applies a changed configuration to the running daemon.
+ * <p>
+ * Folders are compared by path: new folders are scheduled, removed folders are cancelled and changed folders
+ * are rescheduled; unchanged folders keep their schedule. The uploader is only replaced if the SFTP server or
+ * the uploader-wide settings changed. The old uploader then finishes its running cycles in the background
+ * (within {@code shutdownGraceSeconds}) while the new one takes over; both share one {@link UploaderState}
+ * unless the state directory changed. Log settings, {@code configReloadSeconds} and a switch to run-once mode
+ * need a restart.
+ */
+final class ConfigReloader implements Consumer<Config> {
+    
+    private final ScheduledExecutorService executor;
+    private final FolderScheduler scheduler;
+    private final Logger logger;
+    private final boolean dryRun;
+    
+    private final Set<SftpUploader> retiring = ConcurrentHashMap.newKeySet();
+    private volatile Config config;
+    private volatile SftpUploader uploader;
+    private UploaderState state; // guarded by this
+    
+    ConfigReloader(Config config, SftpUploader uploader, UploaderState state, ScheduledExecutorService executor,
+                   FolderScheduler scheduler, Logger logger, boolean dryRun) {
+        this.config = Objects.requireNonNull(config, "config");
+        this.uploader = Objects.requireNonNull(uploader, "uploader");
+        this.state = Objects.requireNonNull(state, "state");
+        this.executor = Objects.requireNonNull(executor, "executor");
+        this.scheduler = Objects.requireNonNull(scheduler, "scheduler");
+        this.logger = Objects.requireNonNull(logger, "logger");
+        this.dryRun = dryRun;
+    }
+    
+    /** The active uploader and those still finishing after a reload; all of them must be drained on shutdown. */
+    List<SftpUploader> uploaders() {
+        final List<SftpUploader> all = new ArrayList<>(retiring);
+        all.add(uploader);
+        return all;
+    }
+    
+    /** Grace period for draining on shutdown, from the current configuration. */
+    int shutdownGraceSeconds() {
+        return config.getShutdownGraceSeconds();
+    }
+    
+    @Override
+    public synchronized void accept(Config next) {
+        final Config previous = config;
+        if (next.getIntervalSeconds() == -1) {
+            logger.warning("Config change to run-once mode (intervalSeconds = -1) ignored; it needs a restart.");
+            return;
+        }
+        if (!Objects.equals(logSettings(previous.getLog()), logSettings(next.getLog()))) {
+            logger.warning("Changed log settings take effect after a restart.");
+        }
+        if (previous.getConfigReloadSeconds() != next.getConfigReloadSeconds()) {
+            logger.warning("Changed configReloadSeconds takes effect after a restart.");
+        }
+        
+        final boolean replaceUploader = !sameUploaderSettings(previous, next);
+        if (replaceUploader) {
+            final SftpUploader old = uploader;
+            if (!state.isFor(next)) {
+                state = UploaderState.open(next, logger);
+            }
+            uploader = new SftpUploader(next, logger, dryRun, state);
+            retire(old, next.getShutdownGraceSeconds());
+            logger.info("SFTP or uploader settings changed; new cycles use a new uploader.");
+        }
+        
+        final Map<String, Config.FolderConfig> before = byPath(previous.getFolders());
+        final Map<String, Config.FolderConfig> after = byPath(next.getFolders());
+        int added = 0, removed = 0, changed = 0;
+        
+        for (String path : before.keySet()) {
+            if (!after.containsKey(path)) {
+                scheduler.cancel(path);
+                removed++;
+                logger.info(() -> "Folder removed: " + path);
+            }
+        }
+        
+        final List<Config.FolderConfig> folders = new ArrayList<>(after.values());
+        folders.sort(Comparator.<Config.FolderConfig>comparingInt(SftpUploader::priorityOf).reversed());
+        for (Config.FolderConfig f : folders) {
+            final Config.FolderConfig old = before.get(f.getPath());
+            final long interval = MainCommand.effectiveIntervalForFolder(f, next.getIntervalSeconds());
+            if (old == null) {
+                added++;
+            } else if (!replaceUploader && old.equals(f)
+                    && interval == MainCommand.effectiveIntervalForFolder(old, previous.getIntervalSeconds())) {
+                continue;
+            } else {
+                changed++;
+            }
+            scheduler.schedule(f, uploader, interval);
+        }
+        
+        if (executor instanceof ScheduledThreadPoolExecutor) {
+            ((ScheduledThreadPoolExecutor) executor).setCorePoolSize(MainCommand.schedulerThreads(after.size(), uploader));
+        }
+        config = next;
+        
+        final String msg = String.format("Configuration reloaded: %d folder(s) added, %d removed, %d rescheduled.",
+                added, removed, changed);
+        logger.info(msg::toString);
+    }
+    
+    /** Lets the old uploader finish its running cycles and post-actions, then releases it. */
+    private void retire(SftpUploader old, int graceSeconds) {
+        retiring.add(old);
+        old.beginDrain();
+        final Thread t = new Thread(() -> {
+            try {
+                if (old.awaitIdle(graceSeconds, TimeUnit.SECONDS)) {
+                    old.close();
+                } else {
+                    logger.warning("Uploads of the previous configuration did not finish in time; checkpointing them for resume.");
+                    old.abortInFlight();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                retiring.remove(old);
+            }
+        }, "uploader-retire");
+        t.setDaemon(true);
+        t.start();
+    }
+    
+    private static boolean sameUploaderSettings(Config a, Config b) {
+        return Objects.equals(a.getSftp(), b.getSftp())
+                && Objects.equals(a.getStateDirectory(), b.getStateDirectory())
+                && Objects.equals(a.getNodeId(), b.getNodeId())
+                && a.getPostActionThreads() == b.getPostActionThreads()
+                && a.getPostActionQueueSize() == b.getPostActionQueueSize()
+                && Objects.equals(a.getSlowFileThresholdSeconds(), b.getSlowFileThresholdSeconds())
+                && Objects.equals(a.getMemoryBudgetMb(), b.getMemoryBudgetMb());
+    }
+    
+    private static List<Object> logSettings(Config.LogConfig log) {
+        if (log == null) return List.of();
+        return List.of(String.valueOf(log.getDirectory()), log.isEnableFileLogging(), log.getRetentionDays(),
+                log.isAsync(), log.getQueueSize(), String.valueOf(log.getOverflowPolicy()), String.valueOf(log.getFormat()));
+    }
+    
+    private static Map<String, Config.FolderConfig> byPath(List<Config.FolderConfig> folders) {
+        final Map<String, Config.FolderConfig> map = new HashMap<>();
+        if (folders != null) {
+            for (Config.FolderConfig f : folders) {
+                map.put(f.getPath(), f);
+            }
+        }
+        return map;
+    }
+}
@@ -3,17 +3,24 @@ package io.labv.sftptransfer;
 import io.labv.sftptransfer.config.Config;
 import io.labv.sftptransfer.config.ConfigLoader;
 import io.labv.sftptransfer.config.ConfigValidator;
+import io.labv.sftptransfer.config.ConfigWatcher;
 import io.labv.sftptransfer.core.FolderMonitorTask;
+import io.labv.sftptransfer.core.FolderScheduler;
 import io.labv.sftptransfer.core.SftpUploader;
+import io.labv.sftptransfer.core.UploaderState;
 import io.labv.sftptransfer.util.LoggerInitializer;
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Objects;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -29,6 +36,9 @@ import java.util.logging.Logger;
 )
 public class MainCommand implements Callable<Integer> {
     
+    /** Folders processed at the same time in run-once mode if sftp.maxSessions is not set. */
+    private static final int DEFAULT_RUN_ONCE_PARALLELISM = 4;
+    
     @Option(names = { "--config" },
             description = "Path to YAML configuration file. Default: src/main/resources/config.yaml")
     private File configFile = new File("src/main/resources/config.yaml");
@@ -53,10 +63,12 @@ public class MainCommand implements Callable<Integer> {
             return 1;
         }
         
+        final long started = System.nanoTime();
         try {
             // 1) Load + validate
             Config config = ConfigLoader.load(configFile);
             ConfigValidator.validate(config);
+            final long configLoaded = System.nanoTime();
             
             Logger logger = LoggerInitializer.init(config.getLog());
             if (logLevel != null) {
@@ -69,45 +81,72 @@ public class MainCommand implements Callable<Integer> {
             logger.info("Configuration loaded.");
             
             final int globalInterval = config.getIntervalSeconds();
-            final List<Config.FolderConfig> folders = config.getFolders();
+            // Higher-priority folders are started first
+            final List<Config.FolderConfig> folders = new ArrayList<>(config.getFolders());
+            folders.sort(Comparator.<Config.FolderConfig>comparingInt(SftpUploader::priorityOf).reversed());
             
             // 2) Run-once mode if global == -1 (per-folder intervals are ignored)
             if (globalInterval == -1) {
                 logger.info("Running in single-run mode for all folders (intervalSeconds = -1).");
+                final long startupDone = System.nanoTime();
                 SftpUploader uploader = new SftpUploader(config, logger, dryRun);
+                Thread drainHook = new Thread(() -> drain(null, List.of(uploader), config.getShutdownGraceSeconds(), logger));
+                Runtime.getRuntime().addShutdownHook(drainHook);
+                
+                // Folders run in parallel and share the pooled sessions; higher priorities are submitted first
+                final Integer maxSessions = uploader.maxSessions();
+                final int parallelism = Math.min(folders.size(),
+                        (maxSessions != null) ? maxSessions : DEFAULT_RUN_ONCE_PARALLELISM);
+                ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, parallelism));
                 for (Config.FolderConfig f : folders) {
-                    new FolderMonitorTask(f, uploader, logger).run();
+                    pool.execute(new FolderMonitorTask(f, uploader, logger));
+                }
+                pool.shutdown();
+                while (!pool.awaitTermination(1, TimeUnit.MINUTES)) {
+                    logger.fine("Waiting for folders to finish...");
                 }
-                logger.info("Single-run completed for all folders. Exiting.");
+                final long transferDone = System.nanoTime();
+                
+                // Queued post actions must finish before the process exits
+                while (!uploader.awaitIdle(1, TimeUnit.MINUTES)) {
+                    logger.fine("Waiting for post actions to finish...");
+                }
+                uploader.close();
+                Runtime.getRuntime().removeShutdownHook(drainHook);
+                final long finished = System.nanoTime();
+                
+                final String msg = String.format(Locale.ROOT,
+                        "Single-run completed for all folders in %d ms (config %d ms, logging %d ms, transfer %d ms, post actions %d ms). Exiting.",
+                        millis(started, finished), millis(started, configLoaded), millis(configLoaded, startupDone),
+                        millis(startupDone, transferDone), millis(transferDone, finished));
+                logger.info(msg::toString);
+                flush(logger);
                 return 0;
             }
             
-            // 3) Periodic scheduling per folder
+            // 3) Periodic scheduling per folder (plus one thread for the config watcher)
+            UploaderState state = UploaderState.open(config, logger);
+            SftpUploader uploader = new SftpUploader(config, logger, dryRun, state);
             ScheduledExecutorService executor =
-                    Executors.newScheduledThreadPool(Math.max(1, folders.size()));
-            
-            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-                logger.info("Shutdown requested. Stopping scheduler...");
-                executor.shutdownNow();
-                try {
-                    if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
-                        logger.warning("Scheduler did not terminate within timeout.");
-                    }
-                } catch (InterruptedException ie) {
-                    Thread.currentThread().interrupt();
-                }
-                logger.info("Shutdown complete.");
-            }));
+                    Executors.newScheduledThreadPool(schedulerThreads(folders.size(), uploader));
+
+            FolderScheduler scheduler = new FolderScheduler(executor, logger);
+            ConfigReloader reloader = new ConfigReloader(config, uploader, state, executor, scheduler, logger, dryRun);
             
-            SftpUploader uploader = new SftpUploader(config, logger, dryRun);
+            // The grace period is read at shutdown, so a reloaded shutdownGraceSeconds applies
+            Runtime.getRuntime().addShutdownHook(new Thread(
+                    () -> drain(executor, reloader.uploaders(), reloader.shutdownGraceSeconds(), logger)));
             
             for (Config.FolderConfig f : folders) {
-                long interval = effectiveIntervalForFolder(f, globalInterval);
-                executor.scheduleAtFixedRate(
-                        new FolderMonitorTask(f, uploader, logger),
-                        0, interval, TimeUnit.SECONDS
-                );
-                logger.info(() -> String.format("Scheduled folder '%s' every %d seconds", f.getPath(), interval));
+                scheduler.schedule(f, uploader, effectiveIntervalForFolder(f, globalInterval));
+            }
+            
+            // 4) Apply valid edits of the config file without a restart
+            final int reloadSeconds = config.getConfigReloadSeconds();
+            if (reloadSeconds > 0) {
+                executor.scheduleWithFixedDelay(new ConfigWatcher(configFile, reloader, logger),
+                        reloadSeconds, reloadSeconds, TimeUnit.SECONDS);
+                logger.fine(() -> "Watching " + configFile + " for changes every " + reloadSeconds + " seconds");
             }
             
             logger.info("labv-sftp-transfer started. Press Ctrl+C to exit.");
@@ -123,12 +162,65 @@ public class MainCommand implements Callable<Integer> {
         }
     }
     
+    /**
+     * Graceful shutdown: stops scheduling new cycles, lets in-flight files finish within the grace period,
+     * then checkpoints whatever is still streaming and closes the remaining sessions.
+     */
+    private static void drain(ScheduledExecutorService executor, List<SftpUploader> uploaders, int graceSeconds, Logger logger) {
+        logger.info(() -> String.format("Shutdown requested. Draining in-flight uploads (grace period %d seconds)...", graceSeconds));
+        if (executor != null) {
+            executor.shutdown();
+        }
+        uploaders.forEach(SftpUploader::beginDrain);
+        try {
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(graceSeconds);
+            for (SftpUploader uploader : uploaders) {
+                if (uploader.awaitIdle(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                    uploader.close();
+                } else {
+                    logger.warning("In-flight uploads did not finish within the grace period; checkpointing them for resume.");
+                    uploader.abortInFlight();
+                }
+            }
+            if (executor != null) {
+                executor.shutdownNow();
+                if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                    logger.warning("Scheduler did not terminate within timeout.");
+                }
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        logger.info("Shutdown complete.");
+        flush(logger);
+    }
+    
+    private static void flush(Logger logger) {
+        for (Handler handler : logger.getHandlers()) {
+            handler.flush();
+        }
+    }
+    
+    private static long millis(long fromNanos, long toNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(toNanos - fromNanos);
+    }
+    
+    /**
+     * One thread per folder plus one for the config watcher; with a session limit (e.g. from the memory budget),
+     * at most one thread per session, since further folders would only wait for a session.
+     */
+    static int schedulerThreads(int folderCount, SftpUploader uploader) {
+        final Integer maxSessions = uploader.maxSessions();
+        final int folderThreads = Math.max(1, folderCount);
+        return ((maxSessions != null) ? Math.min(folderThreads, maxSessions) : folderThreads) + 1;
+    }
+    
     /**
      * Returns the effective interval for a folder.
      * Global rule: globalInterval >= 1 in periodic mode.
      * Per-folder interval applies only if set (>=1). Otherwise use global.
      */
-    private long effectiveIntervalForFolder(Config.FolderConfig folder, long globalInterval) {
+    static long effectiveIntervalForFolder(Config.FolderConfig folder, long globalInterval) {
         Integer folderIv = folder.getIntervalSeconds();
         if (Objects.nonNull(folderIv) && folderIv >= 1) {
             return folderIv;
@@ -1,6 +1,7 @@
 package io.labv.sftptransfer.config;
 
 import java.util.List;
+import java.util.Objects;
 
 public class Config {
     
@@ -12,12 +13,49 @@ public class Config {
      */
     private int intervalSeconds;
     
+    /**
+     * Seconds to let in-flight uploads finish on shutdown before they are checkpointed and aborted.
+     */
+    private int shutdownGraceSeconds = 30;
+    
+    /**
+     * Directory for persistent runtime state (e.g. resume checkpoints). Default: ./state
+     */
+    private String stateDirectory;
+    
+    /**
+     * Identifies this instance when several instances share a folder (claimMode "rename").
+     * Default: the local host name.
+     */
+    private String nodeId;
+    
+    /** Worker threads that archive or delete uploaded files. Default: 1 */
+    private int postActionThreads = 1;
+    
+    /** Uploaded files that may wait for their post-action before uploads block. Default: 1000 */
+    private int postActionQueueSize = 1000;
+    
+    /**
+     * Seconds between checks of the config file for changes in periodic mode; a valid change is applied
+     * without a restart. 0 disables reloading. Default: 5
+     */
+    private int configReloadSeconds = 5;
+    
+    /** Files (upload or post action) taking longer than this are logged with their phase breakdown. Default: off */
+    private Integer slowFileThresholdSeconds;
+    
+    /**
+     * Memory budget in MiB for transfer buffers, sessions, scan results and caches (see MemoryBudget).
+     * Should stay well below -Xmx. Default: unlimited
+     */
+    private Integer memoryBudgetMb;
+    
     private List<FolderConfig> folders;
     private SftpConfig sftp;
     private LogConfig log;
     
     public Config() {
-        // Required by SnakeYAML to instantiate this class reflectively
+        // Instantiated by ConfigBinder
     }
     
     public int getIntervalSeconds() {
@@ -28,6 +66,70 @@ public class Config {
         this.intervalSeconds = intervalSeconds;
     }
     
+    public int getShutdownGraceSeconds() {
+        return shutdownGraceSeconds;
+    }
+    
+    public void setShutdownGraceSeconds(int shutdownGraceSeconds) {
+        this.shutdownGraceSeconds = shutdownGraceSeconds;
+    }
+    
+    public String getStateDirectory() {
+        return stateDirectory;
+    }
+    
+    public void setStateDirectory(String stateDirectory) {
+        this.stateDirectory = stateDirectory;
+    }
+    
+    public String getNodeId() {
+        return nodeId;
+    }
+    
+    public void setNodeId(String nodeId) {
+        this.nodeId = nodeId;
+    }
+    
+    public int getPostActionThreads() {
+        return postActionThreads;
+    }
+    
+    public void setPostActionThreads(int postActionThreads) {
+        this.postActionThreads = postActionThreads;
+    }
+    
+    public int getPostActionQueueSize() {
+        return postActionQueueSize;
+    }
+    
+    public void setPostActionQueueSize(int postActionQueueSize) {
+        this.postActionQueueSize = postActionQueueSize;
+    }
+    
+    public int getConfigReloadSeconds() {
+        return configReloadSeconds;
+    }
+    
+    public void setConfigReloadSeconds(int configReloadSeconds) {
+        this.configReloadSeconds = configReloadSeconds;
+    }
+    
+    public Integer getSlowFileThresholdSeconds() {
+        return slowFileThresholdSeconds;
+    }
+    
+    public void setSlowFileThresholdSeconds(Integer slowFileThresholdSeconds) {
+        this.slowFileThresholdSeconds = slowFileThresholdSeconds;
+    }
+    
+    public Integer getMemoryBudgetMb() {
+        return memoryBudgetMb;
+    }
+    
+    public void setMemoryBudgetMb(Integer memoryBudgetMb) {
+        this.memoryBudgetMb = memoryBudgetMb;
+    }
+    
     public List<FolderConfig> getFolders() {
         return folders;
     }
@@ -58,6 +160,13 @@ public class Config {
         private List<String> pattern;
         private String postAction;   // "move", "delete"
         private String archiveDir;   // used when postAction == "move"
+        private String archiveLayout; // "flat" (default), "daily" (archiveDir/yyyy-MM-dd/), "daily-zip" (archiveDir/yyyy-MM-dd.zip)
+        
+        /**
+         * Remote target directory for this folder; overrides sftp.remoteDir. Both may contain placeholders
+         * such as {yyyy}/{MM}/{dd}, {hostname}, {folderName}, {mtime:pattern} and {hash:N}.
+         */
+        private String remoteDir;
         
         /**
          * Optional per-folder interval in seconds.
@@ -66,8 +175,86 @@ public class Config {
          */
         private Integer intervalSeconds;
         
+        /**
+         * Adaptive polling: the interval shrinks toward minIntervalSeconds while scans find files and
+         * backs off exponentially toward maxIntervalSeconds while they find none. Periodic mode only.
+         */
+        private Boolean adaptiveInterval;
+        private Integer minIntervalSeconds;   // default: 1
+        private Integer maxIntervalSeconds;   // default: the folder's effective interval
+        
+        /**
+         * Upload order within one cycle: "none" (directory order), "oldest-first",
+         * "newest-first", "smallest-first" or "priority" (see priorityPatterns).
+         */
+        private String order;
+        
+        /**
+         * Priority classes for order "priority": files matching an earlier pattern are uploaded first,
+         * oldest-first within a class. Files matching none of them come last.
+         */
+        private List<String> priorityPatterns;
+        
+        /**
+         * Cross-folder priority; higher values go first. While a folder with a higher priority has
+         * pending files, lower-priority folders hold back before starting their next file. Default 0.
+         */
+        private Integer priority;
+        
+        /**
+         * "none" (default) or "rename": claim each file by an atomic rename into a per-node
+         * .inflight directory before uploading, so several instances can share the folder.
+         */
+        private String claimMode;
+        
+        /**
+         * Seconds after which another node's claims are considered abandoned and returned to the folder.
+         * Must exceed the longest single upload. Default: 900
+         */
+        private Integer claimLeaseSeconds;
+        
+        /**
+         * While the folder's modification time is unchanged, the previous scan result is reused.
+         * A full rescan is forced after this many seconds anyway. 0 disables the scan cache. Default: 600
+         */
+        private Integer fullRescanSeconds;
+        
+        /**
+         * Deduplication by content: "none" (default); "skip": do not upload a file whose content was already
+         * delivered to the same remote directory; "copy": create it from the earlier copy on the server
+         * (SFTP copy-data extension), uploading if the server does not support it. postAction applies in all cases.
+         */
+        private String dedup;
+        
+        /**
+         * Before uploading, compare with one listing of the remote directory per cycle and skip files that are
+         * already complete there (e.g. after a crash before the post action): "none" (default), "size",
+         * "mtime" (size, and remote copy not older than the local file) or "checksum" (size, and the content
+         * recorded for the remote file matches the local file).
+         */
+        private String reconcile;
+        
+        /** With reconcile: remote .part files older than this are removed (0 = keep). Default: 86400 */
+        private Integer orphanPartSeconds;
+        
+        /**
+         * "upload" (default), or "download": fetch matching files from remoteDir into path. For downloads,
+         * postAction and archiveDir apply to the remote files.
+         */
+        private String direction;
+        
+        /** Downloads: number of files fetched at the same time, each on its own session. Default: 4 */
+        private Integer parallelDownloads;
+        
+        /**
+         * Uploads: after this many failed attempts (counted across restarts), the file is moved to quarantineDir,
+         * or skipped until it changes if quarantineDir is not set. Default: off (retry forever)
+         */
+        private Integer maxFailures;
+        private String quarantineDir;
+        
         public FolderConfig() {
-            // Required by SnakeYAML
+            // Instantiated by ConfigBinder
         }
         
         public String getPath() {
@@ -102,6 +289,22 @@ public class Config {
             this.archiveDir = archiveDir;
         }
         
+        public String getArchiveLayout() {
+            return archiveLayout;
+        }
+        
+        public void setArchiveLayout(String archiveLayout) {
+            this.archiveLayout = archiveLayout;
+        }
+        
+        public String getRemoteDir() {
+            return remoteDir;
+        }
+        
+        public void setRemoteDir(String remoteDir) {
+            this.remoteDir = remoteDir;
+        }
+        
         public Integer getIntervalSeconds() {
             return intervalSeconds;
         }
@@ -109,6 +312,170 @@ public class Config {
         public void setIntervalSeconds(Integer intervalSeconds) {
             this.intervalSeconds = intervalSeconds;
         }
+        
+        public Boolean getAdaptiveInterval() {
+            return adaptiveInterval;
+        }
+        
+        public void setAdaptiveInterval(Boolean adaptiveInterval) {
+            this.adaptiveInterval = adaptiveInterval;
+        }
+        
+        public Integer getMinIntervalSeconds() {
+            return minIntervalSeconds;
+        }
+        
+        public void setMinIntervalSeconds(Integer minIntervalSeconds) {
+            this.minIntervalSeconds = minIntervalSeconds;
+        }
+        
+        public Integer getMaxIntervalSeconds() {
+            return maxIntervalSeconds;
+        }
+        
+        public void setMaxIntervalSeconds(Integer maxIntervalSeconds) {
+            this.maxIntervalSeconds = maxIntervalSeconds;
+        }
+        
+        public String getOrder() {
+            return order;
+        }
+        
+        public void setOrder(String order) {
+            this.order = order;
+        }
+        
+        public List<String> getPriorityPatterns() {
+            return priorityPatterns;
+        }
+        
+        public void setPriorityPatterns(List<String> priorityPatterns) {
+            this.priorityPatterns = priorityPatterns;
+        }
+        
+        public Integer getPriority() {
+            return priority;
+        }
+        
+        public void setPriority(Integer priority) {
+            this.priority = priority;
+        }
+        
+        public String getClaimMode() {
+            return claimMode;
+        }
+        
+        public void setClaimMode(String claimMode) {
+            this.claimMode = claimMode;
+        }
+        
+        public Integer getClaimLeaseSeconds() {
+            return claimLeaseSeconds;
+        }
+        
+        public void setClaimLeaseSeconds(Integer claimLeaseSeconds) {
+            this.claimLeaseSeconds = claimLeaseSeconds;
+        }
+        
+        public Integer getFullRescanSeconds() {
+            return fullRescanSeconds;
+        }
+        
+        public void setFullRescanSeconds(Integer fullRescanSeconds) {
+            this.fullRescanSeconds = fullRescanSeconds;
+        }
+        
+        public String getDedup() {
+            return dedup;
+        }
+        
+        public void setDedup(String dedup) {
+            this.dedup = dedup;
+        }
+        
+        public String getReconcile() {
+            return reconcile;
+        }
+        
+        public void setReconcile(String reconcile) {
+            this.reconcile = reconcile;
+        }
+        
+        public Integer getOrphanPartSeconds() {
+            return orphanPartSeconds;
+        }
+        
+        public void setOrphanPartSeconds(Integer orphanPartSeconds) {
+            this.orphanPartSeconds = orphanPartSeconds;
+        }
+        
+        public String getDirection() {
+            return direction;
+        }
+        
+        public void setDirection(String direction) {
+            this.direction = direction;
+        }
+        
+        public Integer getParallelDownloads() {
+            return parallelDownloads;
+        }
+        
+        public void setParallelDownloads(Integer parallelDownloads) {
+            this.parallelDownloads = parallelDownloads;
+        }
+        
+        public Integer getMaxFailures() {
+            return maxFailures;
+        }
+        
+        public void setMaxFailures(Integer maxFailures) {
+            this.maxFailures = maxFailures;
+        }
+        
+        public String getQuarantineDir() {
+            return quarantineDir;
+        }
+        
+        public void setQuarantineDir(String quarantineDir) {
+            this.quarantineDir = quarantineDir;
+        }
+        
+        /** Folders are equal if all settings match; used to detect changes on config reload. */
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof FolderConfig)) return false;
+            FolderConfig that = (FolderConfig) o;
+            return Objects.equals(path, that.path)
+                    && Objects.equals(pattern, that.pattern)
+                    && Objects.equals(postAction, that.postAction)
+                    && Objects.equals(archiveDir, that.archiveDir)
+                    && Objects.equals(archiveLayout, that.archiveLayout)
+                    && Objects.equals(remoteDir, that.remoteDir)
+                    && Objects.equals(intervalSeconds, that.intervalSeconds)
+                    && Objects.equals(adaptiveInterval, that.adaptiveInterval)
+                    && Objects.equals(minIntervalSeconds, that.minIntervalSeconds)
+                    && Objects.equals(maxIntervalSeconds, that.maxIntervalSeconds)
+                    && Objects.equals(order, that.order)
+                    && Objects.equals(priorityPatterns, that.priorityPatterns)
+                    && Objects.equals(priority, that.priority)
+                    && Objects.equals(claimMode, that.claimMode)
+                    && Objects.equals(claimLeaseSeconds, that.claimLeaseSeconds)
+                    && Objects.equals(fullRescanSeconds, that.fullRescanSeconds)
+                    && Objects.equals(dedup, that.dedup)
+                    && Objects.equals(reconcile, that.reconcile)
+                    && Objects.equals(orphanPartSeconds, that.orphanPartSeconds)
+                    && Objects.equals(direction, that.direction)
+                    && Objects.equals(parallelDownloads, that.parallelDownloads)
+                    && Objects.equals(maxFailures, that.maxFailures)
+                    && Objects.equals(quarantineDir, that.quarantineDir);
+        }
+        
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, pattern, postAction, archiveDir, intervalSeconds);
+        }
     }
     
     public static class SftpConfig {
@@ -121,8 +488,49 @@ public class Config {
         private String knownHostsPath;
         private String trustedHostPublicKey;
         
+        /**
+         * Maximum number of unacknowledged SFTP write requests per transfer.
+         * If null, sshj's default pipeline depth (16) applies. With auto-tuning
+         * enabled this is the upper bound the pipeline may grow to.
+         */
+        private Integer maxOutstandingRequests;
+        
+        /** Payload size in bytes of a single SFTP write request. Capped by the server's packet limit. */
+        private Integer writeChunkSize;
+        
+        /** Local SSH channel window size in bytes. If null, sshj's default applies. */
+        private Long windowSize;
+        
+        /** Grow the pipeline depth per session from the observed round-trip time and throughput. */
+        private boolean autoTunePipeline = false;
+        
+        /**
+         * Maximum number of SSH sessions open at the same time; folders wait for a free session.
+         * If null, there is no limit (run-once mode then processes at most 4 folders in parallel).
+         */
+        private Integer maxSessions;
+        
+        /**
+         * Stall detection: an upload whose throughput stays below this many bytes per second for stallSeconds
+         * (default 60) is aborted and resumed later. Default: off
+         */
+        private Long stallMinBytesPerSecond;
+        private Integer stallSeconds;
+        
+        /**
+         * Free-space check via statvfs@openssh.com before and during uploads: "off" (default), "pause" (stop the
+         * cycle at the first file that does not fit) or "fit" (upload only the files that fit).
+         */
+        private String capacityCheck;
+        
+        /** Space in MiB that must stay free on the server. Default: 0 */
+        private Integer capacityReserveMb;
+        
+        /** How long a free-space result is reused before it is queried again. Default: 30 */
+        private Integer capacityCacheSeconds;
+        
         public SftpConfig() {
-            // Required by SnakeYAML
+            // Instantiated by ConfigBinder
         }
         
         public String getHost() {
@@ -180,6 +588,115 @@ public class Config {
         public void setTrustedHostPublicKey(String trustedHostPublicKey) {
             this.trustedHostPublicKey = trustedHostPublicKey;
         }
+        
+        public Integer getMaxOutstandingRequests() {
+            return maxOutstandingRequests;
+        }
+        
+        public void setMaxOutstandingRequests(Integer maxOutstandingRequests) {
+            this.maxOutstandingRequests = maxOutstandingRequests;
+        }
+        
+        public Integer getWriteChunkSize() {
+            return writeChunkSize;
+        }
+        
+        public void setWriteChunkSize(Integer writeChunkSize) {
+            this.writeChunkSize = writeChunkSize;
+        }
+        
+        public Long getWindowSize() {
+            return windowSize;
+        }
+        
+        public void setWindowSize(Long windowSize) {
+            this.windowSize = windowSize;
+        }
+        
+        public boolean isAutoTunePipeline() {
+            return autoTunePipeline;
+        }
+        
+        public void setAutoTunePipeline(boolean autoTunePipeline) {
+            this.autoTunePipeline = autoTunePipeline;
+        }
+        
+        public Integer getMaxSessions() {
+            return maxSessions;
+        }
+        
+        public void setMaxSessions(Integer maxSessions) {
+            this.maxSessions = maxSessions;
+        }
+        
+        public Long getStallMinBytesPerSecond() {
+            return stallMinBytesPerSecond;
+        }
+        
+        public void setStallMinBytesPerSecond(Long stallMinBytesPerSecond) {
+            this.stallMinBytesPerSecond = stallMinBytesPerSecond;
+        }
+        
+        public Integer getStallSeconds() {
+            return stallSeconds;
+        }
+        
+        public void setStallSeconds(Integer stallSeconds) {
+            this.stallSeconds = stallSeconds;
+        }
+        
+        public String getCapacityCheck() {
+            return capacityCheck;
+        }
+        
+        public void setCapacityCheck(String capacityCheck) {
+            this.capacityCheck = capacityCheck;
+        }
+        
+        public Integer getCapacityReserveMb() {
+            return capacityReserveMb;
+        }
+        
+        public void setCapacityReserveMb(Integer capacityReserveMb) {
+            this.capacityReserveMb = capacityReserveMb;
+        }
+        
+        public Integer getCapacityCacheSeconds() {
+            return capacityCacheSeconds;
+        }
+        
+        public void setCapacityCacheSeconds(Integer capacityCacheSeconds) {
+            this.capacityCacheSeconds = capacityCacheSeconds;
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof SftpConfig)) return false;
+            SftpConfig that = (SftpConfig) o;
+            return port == that.port
+                    && autoTunePipeline == that.autoTunePipeline
+                    && Objects.equals(host, that.host)
+                    && Objects.equals(username, that.username)
+                    && Objects.equals(privateKeyPath, that.privateKeyPath)
+                    && Objects.equals(remoteDir, that.remoteDir)
+                    && Objects.equals(knownHostsPath, that.knownHostsPath)
+                    && Objects.equals(trustedHostPublicKey, that.trustedHostPublicKey)
+                    && Objects.equals(maxOutstandingRequests, that.maxOutstandingRequests)
+                    && Objects.equals(writeChunkSize, that.writeChunkSize)
+                    && Objects.equals(windowSize, that.windowSize)
+                    && Objects.equals(maxSessions, that.maxSessions)
+                    && Objects.equals(stallMinBytesPerSecond, that.stallMinBytesPerSecond)
+                    && Objects.equals(stallSeconds, that.stallSeconds)
+                    && Objects.equals(capacityCheck, that.capacityCheck)
+                    && Objects.equals(capacityReserveMb, that.capacityReserveMb)
+                    && Objects.equals(capacityCacheSeconds, that.capacityCacheSeconds);
+        }
+        
+        @Override
+        public int hashCode() {
+            return Objects.hash(host, port, username, remoteDir);
+        }
     }
     
     public static class LogConfig {
@@ -188,8 +705,20 @@ public class Config {
         private boolean enableFileLogging = true;
         private int retentionDays = 14;
         
+        /** Write log records on a background thread. Default: true */
+        private boolean async = true;
+        
+        /** Capacity of the async log buffer in records. Default: 8192 */
+        private int queueSize = 8192;
+        
+        /** "drop" (default): drop records below WARNING when the buffer is full; "block": wait for space. */
+        private String overflowPolicy;
+        
+        /** Log file format: "text" (default) or "json" (one JSON object per line). */
+        private String format;
+        
         public LogConfig() {
-            // Required by SnakeYAML
+            // Instantiated by ConfigBinder
         }
         
         public String getDirectory() {
@@ -215,5 +744,37 @@ public class Config {
         public void setRetentionDays(int retentionDays) {
             this.retentionDays = retentionDays;
         }
+        
+        public boolean isAsync() {
+            return async;
+        }
+        
+        public void setAsync(boolean async) {
+            this.async = async;
+        }
+        
+        public int getQueueSize() {
+            return queueSize;
+        }
+        
+        public void setQueueSize(int queueSize) {
+            this.queueSize = queueSize;
+        }
+        
+        public String getOverflowPolicy() {
+            return overflowPolicy;
+        }
+        
+        public void setOverflowPolicy(String overflowPolicy) {
+            this.overflowPolicy = overflowPolicy;
+        }
+        
+        public String getFormat() {
+            return format;
+        }
+        
+        public void setFormat(String format) {
+            this.format = format;
+        }
     }
 }
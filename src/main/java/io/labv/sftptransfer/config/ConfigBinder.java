@@ -0,0 +1,200 @@
+package io.labv.sftptransfer.config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binds the plain maps and lists produced by SnakeYAML's {@code SafeConstructor} to {@link Config}.
+ * <p>
+ * Binding without reflection keeps startup short and needs no reflection metadata in the native image.
+ * Unknown properties are rejected, as before. A property that is set to nothing keeps its default.
+ */
+final class ConfigBinder {
+    
+    private ConfigBinder() {
+    }
+    
+    static Config bind(Object document) {
+        final Config config = new Config();
+        if (document == null) return config;
+        
+        for (Map.Entry<String, Object> e : section(document, "config").entrySet()) {
+            final Object v = e.getValue();
+            if (v == null) continue;
+            switch (e.getKey()) {
+                case "intervalSeconds" -> config.setIntervalSeconds(toInt(v, e.getKey()));
+                case "shutdownGraceSeconds" -> config.setShutdownGraceSeconds(toInt(v, e.getKey()));
+                case "stateDirectory" -> config.setStateDirectory(toStr(v));
+                case "nodeId" -> config.setNodeId(toStr(v));
+                case "postActionThreads" -> config.setPostActionThreads(toInt(v, e.getKey()));
+                case "postActionQueueSize" -> config.setPostActionQueueSize(toInt(v, e.getKey()));
+                case "configReloadSeconds" -> config.setConfigReloadSeconds(toInt(v, e.getKey()));
+                case "slowFileThresholdSeconds" -> config.setSlowFileThresholdSeconds(toInt(v, e.getKey()));
+                case "memoryBudgetMb" -> config.setMemoryBudgetMb(toInt(v, e.getKey()));
+                case "folders" -> config.setFolders(bindFolders(v));
+                case "sftp" -> config.setSftp(bindSftp(v));
+                case "log" -> config.setLog(bindLog(v));
+                default -> throw unknown(e.getKey(), "config");
+            }
+        }
+        return config;
+    }
+    
+    private static List<Config.FolderConfig> bindFolders(Object value) {
+        if (!(value instanceof List)) {
+            throw new IllegalArgumentException("'folders' must be a list.");
+        }
+        final List<Config.FolderConfig> folders = new ArrayList<>();
+        for (Object item : (List<?>) value) {
+            final String where = "folders[" + folders.size() + "]";
+            final Config.FolderConfig f = new Config.FolderConfig();
+            for (Map.Entry<String, Object> e : section(item, where).entrySet()) {
+                final Object v = e.getValue();
+                if (v == null) continue;
+                final String key = where + "." + e.getKey();
+                switch (e.getKey()) {
+                    case "path" -> f.setPath(toStr(v));
+                    case "pattern" -> f.setPattern(toStrList(v));
+                    case "postAction" -> f.setPostAction(toStr(v));
+                    case "archiveDir" -> f.setArchiveDir(toStr(v));
+                    case "archiveLayout" -> f.setArchiveLayout(toStr(v));
+                    case "remoteDir" -> f.setRemoteDir(toStr(v));
+                    case "intervalSeconds" -> f.setIntervalSeconds(toInt(v, key));
+                    case "adaptiveInterval" -> f.setAdaptiveInterval(toBool(v, key));
+                    case "minIntervalSeconds" -> f.setMinIntervalSeconds(toInt(v, key));
+                    case "maxIntervalSeconds" -> f.setMaxIntervalSeconds(toInt(v, key));
+                    case "order" -> f.setOrder(toStr(v));
+                    case "priorityPatterns" -> f.setPriorityPatterns(toStrList(v));
+                    case "priority" -> f.setPriority(toInt(v, key));
+                    case "claimMode" -> f.setClaimMode(toStr(v));
+                    case "claimLeaseSeconds" -> f.setClaimLeaseSeconds(toInt(v, key));
+                    case "fullRescanSeconds" -> f.setFullRescanSeconds(toInt(v, key));
+                    case "dedup" -> f.setDedup(toStr(v));
+                    case "reconcile" -> f.setReconcile(toStr(v));
+                    case "orphanPartSeconds" -> f.setOrphanPartSeconds(toInt(v, key));
+                    case "direction" -> f.setDirection(toStr(v));
+                    case "parallelDownloads" -> f.setParallelDownloads(toInt(v, key));
+                    case "maxFailures" -> f.setMaxFailures(toInt(v, key));
+                    case "quarantineDir" -> f.setQuarantineDir(toStr(v));
+                    default -> throw unknown(e.getKey(), where);
+                }
+            }
+            folders.add(f);
+        }
+        return folders;
+    }
+    
+    private static Config.SftpConfig bindSftp(Object value) {
+        final Config.SftpConfig s = new Config.SftpConfig();
+        for (Map.Entry<String, Object> e : section(value, "sftp").entrySet()) {
+            final Object v = e.getValue();
+            if (v == null) continue;
+            final String key = "sftp." + e.getKey();
+            switch (e.getKey()) {
+                case "host" -> s.setHost(toStr(v));
+                case "port" -> s.setPort(toInt(v, key));
+                case "username" -> s.setUsername(toStr(v));
+                case "privateKeyPath" -> s.setPrivateKeyPath(toStr(v));
+                case "remoteDir" -> s.setRemoteDir(toStr(v));
+                case "knownHostsPath" -> s.setKnownHostsPath(toStr(v));
+                case "trustedHostPublicKey" -> s.setTrustedHostPublicKey(toStr(v));
+                case "maxOutstandingRequests" -> s.setMaxOutstandingRequests(toInt(v, key));
+                case "writeChunkSize" -> s.setWriteChunkSize(toInt(v, key));
+                case "windowSize" -> s.setWindowSize(toLong(v, key));
+                case "autoTunePipeline" -> s.setAutoTunePipeline(toBool(v, key));
+                case "maxSessions" -> s.setMaxSessions(toInt(v, key));
+                case "stallMinBytesPerSecond" -> s.setStallMinBytesPerSecond(toLong(v, key));
+                case "stallSeconds" -> s.setStallSeconds(toInt(v, key));
+                case "capacityCheck" -> s.setCapacityCheck(toStr(v));
+                case "capacityReserveMb" -> s.setCapacityReserveMb(toInt(v, key));
+                case "capacityCacheSeconds" -> s.setCapacityCacheSeconds(toInt(v, key));
+                default -> throw unknown(e.getKey(), "sftp");
+            }
+        }
+        return s;
+    }
+    
+    private static Config.LogConfig bindLog(Object value) {
+        final Config.LogConfig l = new Config.LogConfig();
+        for (Map.Entry<String, Object> e : section(value, "log").entrySet()) {
+            final Object v = e.getValue();
+            if (v == null) continue;
+            final String key = "log." + e.getKey();
+            switch (e.getKey()) {
+                case "directory" -> l.setDirectory(toStr(v));
+                case "enableFileLogging" -> l.setEnableFileLogging(toBool(v, key));
+                case "retentionDays" -> l.setRetentionDays(toInt(v, key));
+                case "async" -> l.setAsync(toBool(v, key));
+                case "queueSize" -> l.setQueueSize(toInt(v, key));
+                case "overflowPolicy" -> l.setOverflowPolicy(toStr(v));
+                case "format" -> l.setFormat(toStr(v));
+                default -> throw unknown(e.getKey(), "log");
+            }
+        }
+        return l;
+    }
+    
+    /* ----------------------- Conversion ----------------------- */
+    
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> section(Object value, String where) {
+        if (!(value instanceof Map)) {
+            throw new IllegalArgumentException("'" + where + "' must be a mapping.");
+        }
+        for (Object key : ((Map<?, ?>) value).keySet()) {
+            if (!(key instanceof String)) {
+                throw new IllegalArgumentException("Invalid property name '" + key + "' in " + where + ".");
+            }
+        }
+        return (Map<String, Object>) value;
+    }
+    
+    private static String toStr(Object v) {
+        return String.valueOf(v);
+    }
+    
+    /** Accepts a list or a single value. */
+    private static List<String> toStrList(Object v) {
+        final List<String> list = new ArrayList<>();
+        if (v instanceof List) {
+            for (Object item : (List<?>) v) {
+                if (item != null) list.add(String.valueOf(item));
+            }
+        } else {
+            list.add(String.valueOf(v));
+        }
+        return list;
+    }
+    
+    private static int toInt(Object v, String key) {
+        final long l = toLong(v, key);
+        if (l < Integer.MIN_VALUE || l > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("'" + key + "' is out of range: " + v);
+        }
+        return (int) l;
+    }
+    
+    private static long toLong(Object v, String key) {
+        if (v instanceof Integer || v instanceof Long) {
+            return ((Number) v).longValue();
+        }
+        try {
+            return Long.parseLong(String.valueOf(v).trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("'" + key + "' must be a whole number: " + v);
+        }
+    }
+    
+    private static boolean toBool(Object v, String key) {
+        if (v instanceof Boolean) return (Boolean) v;
+        final String s = String.valueOf(v).trim();
+        if ("true".equalsIgnoreCase(s)) return true;
+        if ("false".equalsIgnoreCase(s)) return false;
+        throw new IllegalArgumentException("'" + key + "' must be true or false: " + v);
+    }
+    
+    private static IllegalArgumentException unknown(String key, String where) {
+        return new IllegalArgumentException("Unknown property '" + key + "' in " + where + ".");
+    }
+}
@@ -1,8 +1,8 @@
 package io.labv.sftptransfer.config;
 
-import org.yaml.snakeyaml.Yaml;
-import org.yaml.snakeyaml.constructor.Constructor;
 import org.yaml.snakeyaml.LoaderOptions;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.SafeConstructor;
 
 import java.io.File;
 import java.io.FileInputStream;
@@ -11,13 +11,17 @@ import java.io.IOException;
 
 public class ConfigLoader {
     
+    /**
+     * Parses the file into plain maps and lists and binds them to {@link Config} without reflection.
+     *
+     * @throws IllegalArgumentException if the file contains unknown properties or values of the wrong type
+     */
     public static Config load(File configFile) throws IOException {
         
         LoaderOptions options = new LoaderOptions();
-        Constructor constructor = new Constructor(Config.class, options);
-        Yaml yaml = new Yaml(constructor);
+        Yaml yaml = new Yaml(new SafeConstructor(options));
         try (FileInputStream input = new FileInputStream(configFile)) {
-            return yaml.load(input);
+            return ConfigBinder.bind(yaml.load(input));
         }
     }
     
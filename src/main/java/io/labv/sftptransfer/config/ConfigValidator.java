@@ -3,7 +3,9 @@ package io.labv.sftptransfer.config;
 import java.io.IOException;
 import java.util.List;
 
+import io.labv.sftptransfer.core.FilePatternMatcher;
 import io.labv.sftptransfer.util.KeyPathValidator;
+import io.labv.sftptransfer.util.RemotePathTemplate;
 
 public class ConfigValidator {
     
@@ -11,8 +13,45 @@ public class ConfigValidator {
     
     public static void validate(Config config) {
         validateInterval(config.getIntervalSeconds());
+        if (config.getShutdownGraceSeconds() < 0) {
+            throw new IllegalArgumentException("shutdownGraceSeconds must be >= 0.");
+        }
+        if (config.getPostActionThreads() < 1) {
+            throw new IllegalArgumentException("postActionThreads must be >= 1.");
+        }
+        if (config.getPostActionQueueSize() < 1) {
+            throw new IllegalArgumentException("postActionQueueSize must be >= 1.");
+        }
+        if (config.getConfigReloadSeconds() < 0) {
+            throw new IllegalArgumentException("configReloadSeconds must be >= 0.");
+        }
+        if (config.getSlowFileThresholdSeconds() != null && config.getSlowFileThresholdSeconds() < 1) {
+            throw new IllegalArgumentException("slowFileThresholdSeconds must be >= 1.");
+        }
+        if (config.getMemoryBudgetMb() != null && config.getMemoryBudgetMb() < 16) {
+            throw new IllegalArgumentException("memoryBudgetMb must be >= 16.");
+        }
         validateFolders(config.getFolders(), config.getIntervalSeconds());
         validateSftp(config.getSftp());
+        validateDownloads(config.getFolders(), config.getSftp());
+        validateLog(config.getLog());
+    }
+    
+    private static void validateLog(Config.LogConfig log) {
+        if (log == null) {
+            return;
+        }
+        if (log.getQueueSize() < 1) {
+            throw new IllegalArgumentException("log.queueSize must be >= 1.");
+        }
+        String policy = log.getOverflowPolicy();
+        if (policy != null && !policy.isEmpty() && !"drop".equalsIgnoreCase(policy) && !"block".equalsIgnoreCase(policy)) {
+            throw new IllegalArgumentException("log.overflowPolicy must be drop or block.");
+        }
+        String format = log.getFormat();
+        if (format != null && !format.isEmpty() && !"text".equalsIgnoreCase(format) && !"json".equalsIgnoreCase(format)) {
+            throw new IllegalArgumentException("log.format must be text or json.");
+        }
     }
     
     private static void validateInterval(int intervalSeconds) {
@@ -39,6 +78,7 @@ public class ConfigValidator {
         if (folder.getPattern() == null || folder.getPattern().isEmpty()) {
             throw new IllegalArgumentException("Pattern list must not be empty. Folder: " + folder.getPath());
         }
+        validatePatterns(folder.getPattern(), "pattern", folder);
         
         if (folder.getPostAction() == null || folder.getPostAction().isEmpty()) {
             throw new IllegalArgumentException("postAction must be set for folder: " + folder.getPath());
@@ -49,6 +89,51 @@ public class ConfigValidator {
             throw new IllegalArgumentException("archiveDir must be set for archived folders. Folder: " + folder.getPath());
         }
         
+        if (folder.getRemoteDir() != null) {
+            validateRemoteDir(folder.getRemoteDir(), "folder " + folder.getPath());
+        }
+        
+        final String layout = folder.getArchiveLayout();
+        if (layout != null && !layout.isEmpty()
+                && !List.of("flat", "daily", "daily-zip").contains(layout.toLowerCase())) {
+            throw new IllegalArgumentException("archiveLayout for folder '" + folder.getPath() + "' must be flat, daily or daily-zip.");
+        }
+        
+        validateAdaptiveInterval(folder);
+        validateOrder(folder);
+        validateClaim(folder);
+        
+        if (folder.getFullRescanSeconds() != null && folder.getFullRescanSeconds() < 0) {
+            throw new IllegalArgumentException("fullRescanSeconds for folder '" + folder.getPath() + "' must be >= 0.");
+        }
+        
+        final String dedup = folder.getDedup();
+        if (dedup != null && !List.of("none", "skip", "copy").contains(dedup.toLowerCase())) {
+            throw new IllegalArgumentException("dedup for folder '" + folder.getPath() + "' must be none, skip or copy.");
+        }
+        
+        final String reconcile = folder.getReconcile();
+        if (reconcile != null && !List.of("none", "size", "mtime", "checksum").contains(reconcile.toLowerCase())) {
+            throw new IllegalArgumentException("reconcile for folder '" + folder.getPath() + "' must be none, size, mtime or checksum.");
+        }
+        if (folder.getOrphanPartSeconds() != null && folder.getOrphanPartSeconds() < 0) {
+            throw new IllegalArgumentException("orphanPartSeconds for folder '" + folder.getPath() + "' must be >= 0.");
+        }
+        
+        final String direction = folder.getDirection();
+        if (direction != null && !List.of("upload", "download").contains(direction.toLowerCase())) {
+            throw new IllegalArgumentException("direction for folder '" + folder.getPath() + "' must be upload or download.");
+        }
+        if (folder.getParallelDownloads() != null && folder.getParallelDownloads() < 1) {
+            throw new IllegalArgumentException("parallelDownloads for folder '" + folder.getPath() + "' must be >= 1.");
+        }
+        if (folder.getMaxFailures() != null && folder.getMaxFailures() < 1) {
+            throw new IllegalArgumentException("maxFailures for folder '" + folder.getPath() + "' must be >= 1.");
+        }
+        if (folder.getQuarantineDir() != null && folder.getMaxFailures() == null) {
+            throw new IllegalArgumentException("quarantineDir for folder '" + folder.getPath() + "' requires maxFailures.");
+        }
+        
         // Per-folder interval rules:
         // - Optional
         // - If set: must be >= 1 (never -1)
@@ -63,12 +148,94 @@ public class ConfigValidator {
         }
     }
     
+    /** Download folders read from one fixed remote directory and only support remote delete/archive. */
+    private static void validateDownloads(List<Config.FolderConfig> folders, Config.SftpConfig sftp) {
+        for (Config.FolderConfig folder : folders) {
+            if (!"download".equalsIgnoreCase(folder.getDirection())) continue;
+            
+            final String where = "download folder '" + folder.getPath() + "'";
+            final String remoteDir = (folder.getRemoteDir() != null) ? folder.getRemoteDir() : sftp.getRemoteDir();
+            if (remoteDir == null || remoteDir.isEmpty() || !RemotePathTemplate.compile(remoteDir).isConstant()) {
+                throw new IllegalArgumentException("remoteDir for " + where + " must be set and must not contain placeholders.");
+            }
+            if (!List.of("none", "delete", "archive").contains(folder.getPostAction().toLowerCase())) {
+                throw new IllegalArgumentException("postAction for " + where + " must be none, delete or archive.");
+            }
+            if (folder.getArchiveLayout() != null && !"flat".equalsIgnoreCase(folder.getArchiveLayout())) {
+                throw new IllegalArgumentException("archiveLayout for " + where + " must be flat.");
+            }
+            if (folder.getClaimMode() != null && !"none".equalsIgnoreCase(folder.getClaimMode())) {
+                throw new IllegalArgumentException("claimMode is not supported for " + where + ".");
+            }
+            if ((folder.getDedup() != null && !"none".equalsIgnoreCase(folder.getDedup()))
+                    || (folder.getReconcile() != null && !"none".equalsIgnoreCase(folder.getReconcile()))) {
+                throw new IllegalArgumentException("dedup and reconcile are not supported for " + where + ".");
+            }
+            if (folder.getMaxFailures() != null) {
+                throw new IllegalArgumentException("maxFailures is not supported for " + where + ".");
+            }
+        }
+    }
+    
+    private static void validateAdaptiveInterval(Config.FolderConfig folder) {
+        Integer min = folder.getMinIntervalSeconds();
+        Integer max = folder.getMaxIntervalSeconds();
+        if (min != null && min < 1) {
+            throw new IllegalArgumentException("minIntervalSeconds for folder '" + folder.getPath() + "' must be >= 1.");
+        }
+        if (max != null && max < 1) {
+            throw new IllegalArgumentException("maxIntervalSeconds for folder '" + folder.getPath() + "' must be >= 1.");
+        }
+        if (min != null && max != null && min > max) {
+            throw new IllegalArgumentException(
+                    "minIntervalSeconds must not exceed maxIntervalSeconds for folder '" + folder.getPath() + "'.");
+        }
+    }
+    
+    private static void validateOrder(Config.FolderConfig folder) {
+        final String order = folder.getOrder();
+        if (order == null || order.isEmpty()) {
+            return;
+        }
+        switch (order.toLowerCase()) {
+            case "none", "oldest-first", "newest-first", "smallest-first" -> { }
+            case "priority" -> {
+                if (folder.getPriorityPatterns() == null || folder.getPriorityPatterns().isEmpty()) {
+                    throw new IllegalArgumentException("priorityPatterns must be set for order 'priority'. Folder: " + folder.getPath());
+                }
+                validatePatterns(folder.getPriorityPatterns(), "priorityPatterns", folder);
+            }
+            default -> throw new IllegalArgumentException(
+                    "order for folder '" + folder.getPath() + "' must be one of none, oldest-first, newest-first, smallest-first, priority.");
+        }
+    }
+    
+    private static void validatePatterns(List<String> patterns, String key, Config.FolderConfig folder) {
+        try {
+            FilePatternMatcher.validate(patterns);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(key + " for folder '" + folder.getPath() + "': " + e.getMessage(), e);
+        }
+    }
+    
+    private static void validateClaim(Config.FolderConfig folder) {
+        final String mode = folder.getClaimMode();
+        if (mode != null && !mode.isEmpty()
+                && !"none".equalsIgnoreCase(mode) && !"rename".equalsIgnoreCase(mode)) {
+            throw new IllegalArgumentException("claimMode for folder '" + folder.getPath() + "' must be none or rename.");
+        }
+        if (folder.getClaimLeaseSeconds() != null && folder.getClaimLeaseSeconds() < 1) {
+            throw new IllegalArgumentException("claimLeaseSeconds for folder '" + folder.getPath() + "' must be >= 1.");
+        }
+    }
+    
     private static void validateSftp(Config.SftpConfig sftp) {
         if (sftp == null) {
             throw new IllegalArgumentException("SFTP config must be provided.");
         }
         validateSftpBasic(sftp);
         validateSftpAuthentication(sftp);
+        validateSftpPipeline(sftp);
     }
     
     private static void validateSftpBasic(Config.SftpConfig sftp) {
@@ -84,6 +251,48 @@ public class ConfigValidator {
         if (sftp.getRemoteDir() == null || sftp.getRemoteDir().isEmpty()) {
             throw new IllegalArgumentException("Remote directory must be set.");
         }
+        validateRemoteDir(sftp.getRemoteDir(), "sftp");
+    }
+    
+    private static void validateRemoteDir(String remoteDir, String where) {
+        if (remoteDir.isEmpty()) {
+            throw new IllegalArgumentException("remoteDir must not be empty (" + where + ").");
+        }
+        try {
+            RemotePathTemplate.compile(remoteDir);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid remoteDir (" + where + "): " + e.getMessage(), e);
+        }
+    }
+    
+    private static void validateSftpPipeline(Config.SftpConfig sftp) {
+        if (sftp.getMaxOutstandingRequests() != null && sftp.getMaxOutstandingRequests() < 1) {
+            throw new IllegalArgumentException("SFTP maxOutstandingRequests must be >= 1.");
+        }
+        if (sftp.getWriteChunkSize() != null && sftp.getWriteChunkSize() < 1024) {
+            throw new IllegalArgumentException("SFTP writeChunkSize must be >= 1024 bytes.");
+        }
+        if (sftp.getWindowSize() != null && sftp.getWindowSize() < 32768) {
+            throw new IllegalArgumentException("SFTP windowSize must be >= 32768 bytes.");
+        }
+        if (sftp.getMaxSessions() != null && sftp.getMaxSessions() < 1) {
+            throw new IllegalArgumentException("SFTP maxSessions must be >= 1.");
+        }
+        if (sftp.getStallMinBytesPerSecond() != null && sftp.getStallMinBytesPerSecond() < 1) {
+            throw new IllegalArgumentException("SFTP stallMinBytesPerSecond must be >= 1.");
+        }
+        if (sftp.getStallSeconds() != null && sftp.getStallSeconds() < 1) {
+            throw new IllegalArgumentException("SFTP stallSeconds must be >= 1.");
+        }
+        if (sftp.getCapacityCheck() != null && !List.of("off", "pause", "fit").contains(sftp.getCapacityCheck().toLowerCase())) {
+            throw new IllegalArgumentException("SFTP capacityCheck must be off, pause or fit.");
+        }
+        if (sftp.getCapacityReserveMb() != null && sftp.getCapacityReserveMb() < 0) {
+            throw new IllegalArgumentException("SFTP capacityReserveMb must be >= 0.");
+        }
+        if (sftp.getCapacityCacheSeconds() != null && sftp.getCapacityCacheSeconds() < 1) {
+            throw new IllegalArgumentException("SFTP capacityCacheSeconds must be >= 1.");
+        }
     }
     
     private static void validateSftpAuthentication(Config.SftpConfig sftp) {
@@ -0,0 +1,57 @@
+package io.labv.sftptransfer.config;
+
+import java.io.File;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Polls the config file for changes. A changed file is loaded and validated; if that fails, the change is
+ * rejected and the listener is not called, so the previous configuration stays active.
+ * <p>
+ * Polling the modification time and size (instead of a WatchService) also works on network shares and
+ * for editors that save by replacing the file.
+ */
+public class ConfigWatcher implements Runnable {
+    
+    private final File configFile;
+    private final Consumer<Config> listener;
+    private final Logger logger;
+    
+    private long lastModified;
+    private long lastLength;
+    
+    public ConfigWatcher(File configFile, Consumer<Config> listener, Logger logger) {
+        this.configFile = Objects.requireNonNull(configFile, "configFile");
+        this.listener = Objects.requireNonNull(listener, "listener");
+        this.logger = Objects.requireNonNull(logger, "logger");
+        this.lastModified = configFile.lastModified();
+        this.lastLength = configFile.length();
+    }
+    
+    @Override
+    public void run() {
+        final long modified = configFile.lastModified();
+        final long length = configFile.length();
+        if (modified == 0 || (modified == lastModified && length == lastLength)) {
+            return; // missing (e.g. in the middle of a replace) or unchanged
+        }
+        lastModified = modified;
+        lastLength = length;
+        
+        final Config config;
+        try {
+            config = ConfigLoader.load(configFile);
+            ConfigValidator.validate(config);
+        } catch (Exception e) {
+            logger.warning("Rejected change of " + configFile + ": " + e.getMessage()
+                    + " The previous configuration stays active.");
+            return;
+        }
+        try {
+            listener.accept(config);
+        } catch (RuntimeException e) {
+            logger.warning("Could not apply change of " + configFile + ": " + e.getMessage());
+        }
+    }
+}
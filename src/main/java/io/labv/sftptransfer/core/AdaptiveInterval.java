@@ -0,0 +1,54 @@
+package io.labv.sftptransfer.core;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Polling interval of one folder in adaptive mode.
+ * <p>
+ * A scan that transferred files halves the interval (down to the minimum); a scan that transferred nothing
+ * doubles it (up to the maximum). Every delay is randomized by +/- {@value #JITTER_PERCENT}% so that folders started
+ * at the same time drift apart instead of hitting a shared disk in lockstep.
+ */
+final class AdaptiveInterval {
+    
+    static final int JITTER_PERCENT = 10;
+    
+    private final long minMillis;
+    private final long maxMillis;
+    private long currentMillis;
+    
+    AdaptiveInterval(long initialSeconds, long minSeconds, long maxSeconds) {
+        this.minMillis = minSeconds * 1000L;
+        this.maxMillis = Math.max(minMillis, maxSeconds * 1000L);
+        this.currentMillis = Math.max(minMillis, Math.min(maxMillis, initialSeconds * 1000L));
+    }
+    
+    /** Adjusts the interval to the result of the last scan. */
+    void onScan(int filesHandled) {
+        if (filesHandled > 0) {
+            currentMillis = Math.max(minMillis, currentMillis / 2);
+        } else {
+            currentMillis = Math.min(maxMillis, currentMillis * 2);
+        }
+    }
+    
+    /** Delay until the next scan, with jitter applied. */
+    long nextDelayMillis() {
+        return jitter(currentMillis);
+    }
+    
+    /** Random start offset within the first interval. */
+    long initialDelayMillis() {
+        return ThreadLocalRandom.current().nextLong(Math.max(1, minMillis));
+    }
+    
+    long currentMillis() {
+        return currentMillis;
+    }
+    
+    private static long jitter(long millis) {
+        final long spread = millis * JITTER_PERCENT / 100;
+        if (spread <= 0) return millis;
+        return millis - spread + ThreadLocalRandom.current().nextLong(2 * spread + 1);
+    }
+}
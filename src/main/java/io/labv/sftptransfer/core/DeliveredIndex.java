@@ -0,0 +1,103 @@
+package io.labv.sftptransfer.core;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Remembers which content (see {@link FileHashCache}) was delivered to which remote directory, and under
+ * which remote path, so identical files can be skipped or copied on the server.
+ * <p>
+ * The index is an append-only file in the state directory; it is compacted on load once it holds many
+ * superseded lines. Only the most recently used entries are kept (default {@value #DEFAULT_MAX_ENTRIES}).
+ */
+final class DeliveredIndex {
+    
+    static final String FILE_NAME = "delivered.idx";
+    static final int DEFAULT_MAX_ENTRIES = 100_000;
+    
+    private final Path file;
+    private final Logger logger;
+    private final int maxEntries;
+    private final Map<String, String> entries = new LinkedHashMap<>(1024, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > maxEntries;
+        }
+    };
+    
+    DeliveredIndex(Path stateDir, int maxEntries, Logger logger) {
+        this.file = stateDir.resolve(FILE_NAME);
+        this.maxEntries = maxEntries;
+        this.logger = logger;
+        load();
+    }
+    
+    /** Remote path under which this content was delivered to the directory, or null. */
+    synchronized String lookup(String remoteDir, String contentKey) {
+        return entries.get(remoteDir + '\t' + contentKey);
+    }
+    
+    synchronized void record(String remoteDir, String contentKey, String remotePath) {
+        final String key = remoteDir + '\t' + contentKey;
+        if (remotePath.equals(entries.put(key, remotePath))) return;
+        try {
+            Files.createDirectories(file.getParent());
+            try (BufferedWriter w = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                w.write(key + '\t' + remotePath);
+                w.newLine();
+            }
+        } catch (IOException e) {
+            logger.warning("Could not write delivery index " + file + ": " + e.getMessage());
+        }
+    }
+    
+    /** Drops an entry whose remote file is gone. */
+    synchronized void forget(String remoteDir, String contentKey) {
+        entries.remove(remoteDir + '\t' + contentKey);
+    }
+    
+    private void load() {
+        if (!Files.isRegularFile(file)) return;
+        int lines = 0;
+        try (BufferedReader r = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                final int tab = line.lastIndexOf('\t');
+                if (tab <= 0 || line.indexOf('\t') == tab) continue; // dir, key and path are required
+                entries.put(line.substring(0, tab), line.substring(tab + 1));
+                lines++;
+            }
+        } catch (IOException e) {
+            logger.warning("Could not read delivery index " + file + ": " + e.getMessage());
+            return;
+        }
+        if (lines > 2 * Math.max(entries.size(), 1000)) {
+            compact();
+        }
+    }
+    
+    private void compact() {
+        final Path tmp = file.resolveSibling(FILE_NAME + ".tmp");
+        try {
+            try (BufferedWriter w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, String> e : entries.entrySet()) {
+                    w.write(e.getKey() + '\t' + e.getValue());
+                    w.newLine();
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warning("Could not compact delivery index " + file + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package io.labv.sftptransfer.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * Persists how often each local file failed, so a file that always fails (unreadable, rejected by the
+ * server) can be quarantined or skipped after maxFailures attempts instead of being retried every cycle.
+ * Entries are keyed by absolute local path and count only while the file's size and modification time
+ * are unchanged; a changed file starts over.
+ */
+final class FailureTracker {
+    
+    static final String FILE_NAME = "failures.properties";
+    
+    private final Path file;
+    private final Logger logger;
+    private final Properties entries = new Properties();
+    
+    FailureTracker(Path stateDir, Logger logger) {
+        this.file = stateDir.resolve(FILE_NAME);
+        this.logger = logger;
+        load();
+    }
+    
+    /** Failures of one local file. */
+    static final class Failures {
+        final long size;
+        final long lastModifiedMillis;
+        final int count;
+        final long millisSpent;
+        final String lastError;
+        
+        Failures(long size, long lastModifiedMillis, int count, long millisSpent, String lastError) {
+            this.size = size;
+            this.lastModifiedMillis = lastModifiedMillis;
+            this.count = count;
+            this.millisSpent = millisSpent;
+            this.lastError = lastError;
+        }
+    }
+    
+    /** Failures of the file in its current version, or null if there are none. */
+    synchronized Failures current(Path localFile, long size, long lastModifiedMillis) {
+        final Failures f = get(localFile);
+        return (f != null && f.size == size && f.lastModifiedMillis == lastModifiedMillis) ? f : null;
+    }
+    
+    /** Counts a failed attempt and the time it took; returns the updated totals. */
+    synchronized Failures recordFailure(Path localFile, long size, long lastModifiedMillis, long millis, String error) {
+        final Failures previous = get(localFile);
+        final Failures f = (previous != null && previous.size == size && previous.lastModifiedMillis == lastModifiedMillis)
+                ? new Failures(size, lastModifiedMillis, previous.count + 1, previous.millisSpent + millis, error)
+                : new Failures(size, lastModifiedMillis, 1, millis, error);
+        entries.setProperty(key(localFile), f.size + ":" + f.lastModifiedMillis + ":" + f.count + ":" + f.millisSpent + ":"
+                + ((error != null) ? error : ""));
+        save();
+        return f;
+    }
+    
+    /** Forgets the file, e.g. after it was uploaded or quarantined. */
+    synchronized void remove(Path localFile) {
+        if (entries.remove(key(localFile)) != null) {
+            save();
+        }
+    }
+    
+    private Failures get(Path localFile) {
+        final String value = entries.getProperty(key(localFile));
+        return (value != null) ? parse(value) : null;
+    }
+    
+    private static Failures parse(String value) {
+        // size:mtime:count:millis:lastError (the error may itself contain ':')
+        final String[] parts = value.split(":", 5);
+        if (parts.length != 5) return null;
+        try {
+            return new Failures(Long.parseLong(parts[0]), Long.parseLong(parts[1]), Integer.parseInt(parts[2]),
+                    Long.parseLong(parts[3]), parts[4]);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+    
+    private static String key(Path localFile) {
+        return localFile.toAbsolutePath().normalize().toString();
+    }
+    
+    private void load() {
+        if (!Files.isRegularFile(file)) return;
+        try (InputStream in = Files.newInputStream(file)) {
+            entries.load(in);
+        } catch (IOException e) {
+            logger.warning("Could not read failure counts from " + file + ": " + e.getMessage());
+        }
+    }
+    
+    private void save() {
+        try {
+            Files.createDirectories(file.getParent());
+            final Path tmp = file.resolveSibling(FILE_NAME + ".tmp");
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                entries.store(out, "labv-sftp-transfer failure counts");
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warning("Could not write failure counts to " + file + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package io.labv.sftptransfer.core;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Lets several instances process one shared folder without uploading the same file twice.
+ * <p>
+ * A file is claimed by atomically renaming it into {@code <folder>/.inflight/<nodeId>/}; only one node's
+ * rename can succeed. Each node refreshes its lease file {@code <folder>/.inflight/<nodeId>.lease} from a
+ * timer, independent of upload progress. If a lease is older than the lease time, the node is considered
+ * dead and any other node moves its claimed files back into the folder so they are picked up again.
+ * <p>
+ * Files are moved back without ever replacing a file of the same name: via a hard link where the file
+ * system supports it, otherwise with a plain rename (which fails on an existing target on Windows shares).
+ */
+final class FileClaimer {
+    
+    static final String INFLIGHT_DIR = ".inflight";
+    private static final String LEASE_SUFFIX = ".lease";
+    private static final String TAKEOVER_SUFFIX = ".takeover";
+    
+    private final Path folder;
+    private final Path inflightRoot;
+    private final Path nodeDir;
+    private final Path leaseFile;
+    private final long leaseMillis;
+    private final Logger logger;
+    private ScheduledFuture<?> renewal;
+    
+    FileClaimer(Path folder, String nodeId, long leaseSeconds, Logger logger) {
+        final String safeId = nodeId.replaceAll("[^A-Za-z0-9._-]", "_");
+        this.folder = folder;
+        this.inflightRoot = folder.resolve(INFLIGHT_DIR);
+        this.nodeDir = inflightRoot.resolve(safeId);
+        this.leaseFile = inflightRoot.resolve(safeId + LEASE_SUFFIX);
+        this.leaseMillis = leaseSeconds * 1000L;
+        this.logger = logger;
+    }
+    
+    /** Creates the node directory and refreshes this node's lease. */
+    void renewLease() throws IOException {
+        Files.createDirectories(nodeDir);
+        try {
+            Files.setLastModifiedTime(leaseFile, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (NoSuchFileException e) {
+            Files.createFile(leaseFile);
+        }
+    }
+    
+    /** Refreshes the lease three times per lease time on the given timer, until {@link #stopRenewal}. */
+    synchronized void startRenewal(ScheduledExecutorService timer) {
+        final long period = Math.max(1000, leaseMillis / 3);
+        renewal = timer.scheduleWithFixedDelay(this::heartbeat, period, period, TimeUnit.MILLISECONDS);
+    }
+    
+    synchronized void stopRenewal() {
+        if (renewal != null) renewal.cancel(false);
+    }
+    
+    /** True if this claimer was created with the given lease time. */
+    boolean hasLease(long leaseSeconds) {
+        return leaseMillis == leaseSeconds * 1000L;
+    }
+    
+    /** Refreshes the lease; failures only delay the refresh to the next run of the timer. */
+    private void heartbeat() {
+        try {
+            renewLease();
+        } catch (IOException e) {
+            logger.warning("Could not refresh lease " + leaseFile + ": " + e.getMessage());
+        }
+    }
+    
+    /** True if the path lies in this node's claim directory. */
+    boolean isClaimed(Path file) {
+        return nodeDir.equals(file.getParent());
+    }
+    
+    /** Files this node claimed in an earlier run but never finished (e.g. after a crash). */
+    List<ScannedFile> recoverOwnClaims() {
+        final List<ScannedFile> result = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(nodeDir)) {
+            for (Path p : ds) {
+                final BasicFileAttributes attrs = Files.readAttributes(p, BasicFileAttributes.class);
+                if (attrs.isRegularFile()) {
+                    result.add(new ScannedFile(p, attrs));
+                }
+            }
+        } catch (IOException ignored) {
+            // Nothing to recover.
+        }
+        return result;
+    }
+    
+    /** Returns files of nodes whose lease has expired to the shared folder. */
+    void releaseStaleClaims() {
+        final long cutoff = System.currentTimeMillis() - leaseMillis;
+        restoreAbandonedTakeovers(cutoff);
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(inflightRoot, "*" + LEASE_SUFFIX)) {
+            for (Path lease : ds) {
+                if (lease.equals(leaseFile)) continue;
+                try {
+                    if (Files.getLastModifiedTime(lease).toMillis() >= cutoff) continue;
+                    final String name = lease.getFileName().toString();
+                    final Path staleDir = inflightRoot.resolve(name.substring(0, name.length() - LEASE_SUFFIX.length()));
+                    // Take over the lease first so that only one node returns the files
+                    final Path takeover = lease.resolveSibling(name + TAKEOVER_SUFFIX);
+                    Files.move(lease, takeover, StandardCopyOption.ATOMIC_MOVE);
+                    // The takeover's own age tells other nodes whether this node died during it
+                    Files.setLastModifiedTime(takeover, FileTime.fromMillis(System.currentTimeMillis()));
+                    final int moved = returnAll(staleDir);
+                    Files.deleteIfExists(takeover);
+                    final String warn = "Lease of node '" + staleDir.getFileName() + "' expired; returned "
+                            + moved + " claimed file(s) to " + folder;
+                    logger.warning(warn);
+                } catch (NoSuchFileException e) {
+                    // Another node took it over concurrently.
+                } catch (IOException e) {
+                    logger.warning("Could not release stale claims of " + lease + ": " + e.getMessage());
+                }
+            }
+        } catch (IOException ignored) {
+            // No .inflight directory yet.
+        }
+    }
+    
+    /**
+     * A takeover file older than the lease time was left by a node that died while returning files.
+     * Putting the lease back lets the next takeover start over; if the node came back and wrote a new
+     * lease in the meantime, its claims are its own again and the takeover file is dropped.
+     */
+    private void restoreAbandonedTakeovers(long cutoff) {
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(inflightRoot, "*" + LEASE_SUFFIX + TAKEOVER_SUFFIX)) {
+            for (Path takeover : ds) {
+                final String name = takeover.getFileName().toString();
+                final Path lease = takeover.resolveSibling(name.substring(0, name.length() - TAKEOVER_SUFFIX.length()));
+                try {
+                    if (Files.getLastModifiedTime(takeover).toMillis() >= cutoff) continue;
+                    moveNoReplace(takeover, lease);
+                    final String warn = "Restored abandoned takeover " + takeover;
+                    logger.warning(warn);
+                } catch (FileAlreadyExistsException e) {
+                    try {
+                        Files.deleteIfExists(takeover);
+                    } catch (IOException ignored) {
+                        // Retried on the next cycle.
+                    }
+                } catch (NoSuchFileException e) {
+                    // Another node restored it concurrently.
+                } catch (IOException e) {
+                    logger.warning("Could not restore abandoned takeover " + takeover + ": " + e.getMessage());
+                }
+            }
+        } catch (IOException ignored) {
+            // No .inflight directory yet.
+        }
+    }
+    
+    /**
+     * Claims the file for this node.
+     *
+     * @return the path of the claimed file, or null if another node claimed it first
+     */
+    Path claim(Path file) throws IOException {
+        final Path target = nodeDir.resolve(file.getFileName());
+        try {
+            Files.move(file, target, StandardCopyOption.ATOMIC_MOVE);
+            return target;
+        } catch (NoSuchFileException | FileAlreadyExistsException e) {
+            return null;
+        } catch (AtomicMoveNotSupportedException e) {
+            throw new IOException("Filesystem of " + folder + " does not support atomic rename; claiming is not possible", e);
+        }
+    }
+    
+    /** Puts a claimed file back into the shared folder so that any node can retry it. */
+    void release(Path claimed) {
+        try {
+            moveBack(claimed);
+        } catch (NoSuchFileException ignored) {
+            // Already archived or deleted.
+        } catch (IOException e) {
+            logger.warning("Could not release claim on " + claimed + ": " + e.getMessage());
+        }
+    }
+    
+    private int returnAll(Path dir) throws IOException {
+        int moved = 0;
+        if (!Files.isDirectory(dir)) return moved;
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+            for (Path p : ds) {
+                if (!Files.isRegularFile(p)) continue;
+                try {
+                    moveBack(p);
+                    moved++;
+                } catch (FileAlreadyExistsException e) {
+                    logger.warning("Cannot return " + p + ": a file with the same name exists in " + folder);
+                }
+            }
+        }
+        return moved;
+    }
+    
+    /**
+     * Moves the file back into the shared folder. If a file with the same name appeared there in the
+     * meantime, the claimed file is returned under a unique name instead of replacing it.
+     */
+    private void moveBack(Path claimed) throws IOException {
+        final String name = claimed.getFileName().toString();
+        try {
+            moveNoReplace(claimed, folder.resolve(name));
+        } catch (FileAlreadyExistsException e) {
+            final Path target = folder.resolve(PostActionStage.uniqueName(name));
+            moveNoReplace(claimed, target);
+            logger.warning("A newer " + name + " exists in " + folder + "; returned the claimed file as " + target.getFileName());
+        }
+    }
+    
+    /** Moves a file within one file system; fails with FileAlreadyExistsException instead of replacing the target. */
+    static void moveNoReplace(Path source, Path target) throws IOException {
+        try {
+            // link() fails atomically if the target exists, unlike rename() on POSIX
+            Files.createLink(target, source);
+        } catch (FileAlreadyExistsException | NoSuchFileException e) {
+            throw e;
+        } catch (UnsupportedOperationException | IOException e) {
+            // No hard links (e.g. SMB shares): a plain move does not replace an existing target
+            Files.move(source, target);
+            return;
+        }
+        Files.delete(source);
+    }
+}
@@ -0,0 +1,76 @@
+package io.labv.sftptransfer.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+
+/**
+ * Content keys of local files for deduplication. The key combines the size with CRC32C and CRC32 of the
+ * content (64 hash bits); both checksums are computed in a single read and are hardware-accelerated on
+ * common CPUs. Keys are cached by path, size and modification time, so an unchanged file is read once.
+ */
+final class FileHashCache {
+    
+    static final int DEFAULT_MAX_ENTRIES = 10_000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    
+    private static final class Entry {
+        final long size;
+        final long lastModifiedMillis;
+        final String key;
+        
+        Entry(long size, long lastModifiedMillis, String key) {
+            this.size = size;
+            this.lastModifiedMillis = lastModifiedMillis;
+            this.key = key;
+        }
+    }
+    
+    private final int maxEntries;
+    private final Map<Path, Entry> cache = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, Entry> eldest) {
+            return size() > maxEntries;
+        }
+    };
+    
+    FileHashCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+    
+    /** Returns the content key of the file, reading it only if size or modification time changed. */
+    String keyOf(Path file, long size, long lastModifiedMillis) throws IOException {
+        synchronized (cache) {
+            final Entry e = cache.get(file);
+            if (e != null && e.size == size && e.lastModifiedMillis == lastModifiedMillis) {
+                return e.key;
+            }
+        }
+        final String key = compute(file);
+        synchronized (cache) {
+            cache.put(file, new Entry(size, lastModifiedMillis, key));
+        }
+        return key;
+    }
+    
+    private static String compute(Path file) throws IOException {
+        final CRC32C crc32c = new CRC32C();
+        final CRC32 crc32 = new CRC32();
+        long size = 0;
+        try (InputStream in = Files.newInputStream(file)) {
+            final byte[] buf = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                crc32c.update(buf, 0, n);
+                crc32.update(buf, 0, n);
+                size += n;
+            }
+        }
+        return size + "-" + Long.toHexString(crc32c.getValue()) + "-" + Long.toHexString(crc32.getValue());
+    }
+}
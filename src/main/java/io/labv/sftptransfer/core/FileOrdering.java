@@ -0,0 +1,62 @@
+package io.labv.sftptransfer.core;
+
+import io.labv.sftptransfer.config.Config;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Builds the per-folder upload order from {@link Config.FolderConfig#getOrder()}.
+ * All comparators work on the attributes captured during the scan.
+ */
+final class FileOrdering {
+    
+    private static final Comparator<ScannedFile> OLDEST_FIRST =
+            Comparator.comparingLong(ScannedFile::lastModifiedMillis)
+                    .thenComparing(f -> f.path().getFileName().toString());
+    
+    /** Priority comparators per pattern list, so matchers are compiled once and not every cycle. */
+    private static final Map<List<String>, Comparator<ScannedFile>> PRIORITY_ORDERS = new ConcurrentHashMap<>();
+    
+    private FileOrdering() {}
+    
+    /** Returns the comparator for the folder, or null if directory order should be kept. */
+    static Comparator<ScannedFile> forFolder(Config.FolderConfig folder) {
+        final String order = folder.getOrder();
+        if (order == null || order.isEmpty()) {
+            return null;
+        }
+        switch (order.toLowerCase()) {
+            case "oldest-first":
+                return OLDEST_FIRST;
+            case "newest-first":
+                return OLDEST_FIRST.reversed();
+            case "smallest-first":
+                return Comparator.comparingLong(ScannedFile::size).thenComparing(OLDEST_FIRST);
+            case "priority":
+                return PRIORITY_ORDERS.computeIfAbsent(List.copyOf(folder.getPriorityPatterns()),
+                        patterns -> byPriorityClass(patterns).thenComparing(OLDEST_FIRST));
+            case "none":
+            default:
+                return null;
+        }
+    }
+    
+    /** Index of the first matching priority pattern; files matching none sort last. */
+    private static Comparator<ScannedFile> byPriorityClass(List<String> patterns) {
+        final List<FilePatternMatcher> matchers = new ArrayList<>();
+        for (String p : patterns) {
+            matchers.add(FilePatternMatcher.compile(List.of(p)));
+        }
+        return Comparator.comparingInt(f -> {
+            final String name = f.path().getFileName().toString();
+            for (int i = 0; i < matchers.size(); i++) {
+                if (matchers.get(i).matches(name)) return i;
+            }
+            return matchers.size();
+        });
+    }
+}
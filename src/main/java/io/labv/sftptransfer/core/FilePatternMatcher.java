@@ -0,0 +1,188 @@
+package io.labv.sftptransfer.core;
+
+import org.apache.commons.io.IOCase;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * Matches file names against all configured patterns of a folder in one pass.
+ * <p>
+ * Patterns are globs by default ({@code glob:} prefix optional) or Java regular expressions with a
+ * {@code regex:} prefix. Exact names and pure suffix globs such as {@code *.csv} are answered by hash
+ * lookups; all other globs are combined into a single regular expression. Case sensitivity follows the
+ * operating system, like {@link java.nio.file.PathMatcher} globs do.
+ */
+public final class FilePatternMatcher {
+    
+    private static final String GLOB_META = "*?[]{}\\";
+    
+    private final boolean caseSensitive;
+    private final boolean matchAll;
+    private final Set<String> exactNames = new HashSet<>();
+    private final Set<String> suffixes = new HashSet<>();
+    private final int[] suffixLengths;
+    private final Pattern combinedGlobs;
+    private final List<Pattern> regexes = new ArrayList<>();
+    
+    private FilePatternMatcher(List<String> patterns, boolean caseSensitive) {
+        this.caseSensitive = caseSensitive;
+        final int flags = caseSensitive ? 0 : (Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+        
+        boolean all = false;
+        final Set<Integer> lengths = new TreeSet<>();
+        final StringBuilder combined = new StringBuilder();
+        
+        for (String raw : patterns) {
+            if (raw.regionMatches(true, 0, "regex:", 0, 6)) {
+                regexes.add(Pattern.compile(raw.substring(6), flags));
+                continue;
+            }
+            final String glob = raw.regionMatches(true, 0, "glob:", 0, 5) ? raw.substring(5) : raw;
+            
+            if (glob.equals("*")) {
+                all = true;
+            } else if (isLiteral(glob)) {
+                exactNames.add(key(glob));
+            } else if (glob.charAt(0) == '*' && isLiteral(glob.substring(1))) {
+                final String suffix = key(glob.substring(1));
+                suffixes.add(suffix);
+                lengths.add(suffix.length());
+            } else {
+                if (combined.length() > 0) combined.append('|');
+                combined.append("(?:").append(globToRegex(glob)).append(')');
+            }
+        }
+        
+        this.matchAll = all;
+        this.suffixLengths = lengths.stream().mapToInt(Integer::intValue).toArray();
+        this.combinedGlobs = (combined.length() > 0) ? Pattern.compile(combined.toString(), flags) : null;
+    }
+    
+    /** Compiles the patterns with the operating system's case sensitivity. */
+    static FilePatternMatcher compile(List<String> patterns) {
+        return new FilePatternMatcher(patterns, IOCase.SYSTEM.isCaseSensitive());
+    }
+    
+    /**
+     * Compiles the patterns once so that configuration errors surface at load time.
+     *
+     * @throws IllegalArgumentException if a pattern is empty or is not a valid glob or regular expression
+     */
+    public static void validate(List<String> patterns) {
+        for (String p : patterns) {
+            if (p == null || p.isEmpty() || p.equalsIgnoreCase("glob:")) {
+                throw new IllegalArgumentException("Pattern must not be empty.");
+            }
+            try {
+                compile(List.of(p));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid pattern '" + p + "': " + e.getMessage(), e);
+            }
+        }
+    }
+    
+    boolean matches(String fileName) {
+        if (matchAll) return true;
+        
+        final String key = key(fileName);
+        if (exactNames.contains(key)) return true;
+        for (int len : suffixLengths) {
+            if (len <= key.length() && suffixes.contains(key.substring(key.length() - len))) return true;
+        }
+        
+        if (combinedGlobs != null && combinedGlobs.matcher(fileName).matches()) return true;
+        for (Pattern regex : regexes) {
+            if (regex.matcher(fileName).matches()) return true;
+        }
+        return false;
+    }
+    
+    private String key(String s) {
+        return caseSensitive ? s : s.toLowerCase(Locale.ROOT);
+    }
+    
+    private static boolean isLiteral(String glob) {
+        if (glob.isEmpty()) return false;
+        for (int i = 0; i < glob.length(); i++) {
+            if (GLOB_META.indexOf(glob.charAt(i)) >= 0) return false;
+        }
+        return true;
+    }
+    
+    /** Translates a glob with the syntax of {@link java.nio.file.FileSystem#getPathMatcher} to a regex. */
+    static String globToRegex(String glob) {
+        final StringBuilder sb = new StringBuilder();
+        boolean inGroup = false;
+        
+        for (int i = 0; i < glob.length(); i++) {
+            final char c = glob.charAt(i);
+            switch (c) {
+                case '*' -> sb.append("[^/]*");
+                case '?' -> sb.append("[^/]");
+                case '\\' -> {
+                    if (i + 1 < glob.length()) {
+                        appendLiteral(sb, glob.charAt(++i));
+                    } else {
+                        appendLiteral(sb, c);
+                    }
+                }
+                case '[' -> i = appendBracket(sb, glob, i);
+                case '{' -> {
+                    if (inGroup) throw new IllegalArgumentException("Nested groups are not supported: " + glob);
+                    sb.append("(?:");
+                    inGroup = true;
+                }
+                case '}' -> {
+                    if (inGroup) {
+                        sb.append(')');
+                        inGroup = false;
+                    } else {
+                        appendLiteral(sb, c);
+                    }
+                }
+                case ',' -> sb.append(inGroup ? "|" : ",");
+                default -> appendLiteral(sb, c);
+            }
+        }
+        if (inGroup) throw new IllegalArgumentException("Missing '}' in pattern: " + glob);
+        return sb.toString();
+    }
+    
+    /** Appends a bracket expression starting at {@code start}; returns the index of the closing ']'. */
+    private static int appendBracket(StringBuilder sb, String glob, int start) {
+        final int end = glob.indexOf(']', start + 2);
+        if (end < 0) throw new IllegalArgumentException("Missing ']' in pattern: " + glob);
+        
+        sb.append('[');
+        int i = start + 1;
+        if (glob.charAt(i) == '!') {
+            sb.append('^');
+            i++;
+        }
+        for (; i < end; i++) {
+            final char c = glob.charAt(i);
+            if (c == '-') {
+                sb.append('-');
+            } else if (c == '\\' || c == '[' || c == '&' || c == '^') {
+                sb.append('\\').append(c);
+            } else {
+                sb.append(c);
+            }
+        }
+        sb.append(']');
+        return end;
+    }
+    
+    private static void appendLiteral(StringBuilder sb, char c) {
+        if (c < 128 && !Character.isLetterOrDigit(c)) {
+            sb.append('\\');
+        }
+        sb.append(c);
+    }
+}
@@ -0,0 +1,437 @@
+package io.labv.sftptransfer.core;
+
+import io.labv.sftptransfer.config.Config;
+import net.schmizz.sshj.sftp.FileAttributes;
+import net.schmizz.sshj.sftp.OpenMode;
+import net.schmizz.sshj.sftp.RemoteFile;
+import net.schmizz.sshj.sftp.RemoteResourceInfo;
+import net.schmizz.sshj.sftp.SFTPClient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Download cycle for folders with {@code direction: download}: lists the remote directory once, then fetches
+ * the matching files on several pooled sessions into local {@code .part} files that are renamed into place
+ * when complete.
+ * <p>
+ * Each {@code .part} file has a checkpoint with the remote size and modification time; if both still match,
+ * the next attempt continues at the end of the part file. Downloaded files get the remote modification time,
+ * so a file whose remote post action did not run (e.g. after a crash) is recognised by name, size and time
+ * and only gets its post action.
+ */
+final class FolderDownloader {
+    
+    static final int DEFAULT_PARALLEL_DOWNLOADS = 4;
+    private static final String PART_SUFFIX = ".part";
+    private static final long ALREADY_COMPLETE = -1;
+    private static final long NAME_TAKEN = -2;
+    
+    private final SftpSessionPool pool;
+    private final ResumeStore resumeStore;
+    private final MemoryBudget budget;
+    private final Map<Path, InFlightTransfer> inFlight;
+    private final BooleanSupplier draining;
+    private final boolean dryRun;
+    private final Logger logger;
+    private final Set<String> knownArchiveDirs = ConcurrentHashMap.newKeySet();
+    private final ExecutorService workers;
+    
+    private static final class Counts {
+        final AtomicInteger downloaded = new AtomicInteger();
+        final AtomicInteger skipped = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final AtomicInteger conflicts = new AtomicInteger();
+        final AtomicLong bytes = new AtomicLong();
+    }
+    
+    FolderDownloader(SftpSessionPool pool, ResumeStore resumeStore, MemoryBudget budget, Map<Path, InFlightTransfer> inFlight,
+                     BooleanSupplier draining, boolean dryRun, Logger logger) {
+        this.pool = pool;
+        this.resumeStore = resumeStore;
+        this.budget = budget;
+        this.inFlight = inFlight;
+        this.draining = draining;
+        this.dryRun = dryRun;
+        this.logger = logger;
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.workers = Executors.newCachedThreadPool(r -> {
+            final Thread t = new Thread(r, "download-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+    
+    /**
+     * Performs one download cycle for the folder.
+     *
+     * @return the number of files downloaded or found already complete locally
+     */
+    int downloadOnce(Config.FolderConfig folder, String remoteDir) {
+        final Path localDir = Paths.get(folder.getPath());
+        if (!dryRun) {
+            try {
+                Files.createDirectories(localDir);
+            } catch (IOException e) {
+                final String err = "Cannot create download directory " + localDir + ": " + e.getMessage();
+                logger.log(Level.SEVERE, err, e);
+                return 0;
+            }
+        }
+        
+        final long cycleStart = System.nanoTime();
+        final PhaseTimes cycleTimes = new PhaseTimes();
+        final List<RemoteResourceInfo> files = list(folder, remoteDir, localDir, cycleTimes);
+        if (files == null) return 0;
+        if (files.isEmpty()) {
+            logger.fine(() -> "No matching files in " + remoteDir);
+            return 0;
+        }
+        final String foundMsg = "Found " + files.size() + " file(s) in " + remoteDir;
+        logger.info(foundMsg::toString);
+        
+        final Queue<RemoteResourceInfo> queue = new ConcurrentLinkedQueue<>(files);
+        final Counts counts = new Counts();
+        final int parallel = Math.min(files.size(),
+                (folder.getParallelDownloads() != null) ? folder.getParallelDownloads() : DEFAULT_PARALLEL_DOWNLOADS);
+        final List<Callable<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < parallel; i++) {
+            tasks.add(() -> {
+                work(folder, localDir, queue, counts, cycleTimes);
+                return null;
+            });
+        }
+        try {
+            workers.invokeAll(tasks);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!queue.isEmpty() && draining.getAsBoolean()) {
+            final String msg = "Draining; leaving " + queue.size() + " file(s) in " + remoteDir + " for the next run";
+            logger.info(msg::toString);
+        }
+        
+        final String summary = String.format(Locale.ROOT, "Cycle for %s: %d downloaded, %d skipped, %d failed, %d name conflicts, %d bytes in %d ms (%s)%s",
+                remoteDir, counts.downloaded.get(), counts.skipped.get(), counts.failed.get(), counts.conflicts.get(), counts.bytes.get(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - cycleStart), cycleTimes,
+                budget.isLimited() ? "; memory: " + budget.usage() : "");
+        logger.info(summary::toString);
+        return counts.downloaded.get() + counts.skipped.get();
+    }
+    
+    /** Stops the download threads; call once no cycle is running or after the sessions were closed. */
+    void shutdown() {
+        workers.shutdownNow();
+    }
+    
+    /**
+     * Lists the matching regular files of the remote directory, leaving out those that are already complete
+     * locally and have no post action. Returns null if the directory cannot be listed.
+     */
+    private List<RemoteResourceInfo> list(Config.FolderConfig folder, String remoteDir, Path localDir, PhaseTimes times) {
+        final FilePatternMatcher matcher = FilePatternMatcher.compile(folder.getPattern());
+        final boolean keepComplete = !"none".equalsIgnoreCase(folder.getPostAction());
+        SftpSessionPool.Session session = null;
+        boolean reusable = false;
+        try {
+            session = pool.borrow(times);
+            final long start = System.nanoTime();
+            final List<RemoteResourceInfo> files = new ArrayList<>(session.sftp().ls(remoteDir, e -> e.isRegularFile()
+                    && isPlainName(e.getName()) && !e.getName().endsWith(PART_SUFFIX) && matcher.matches(e.getName())));
+            times.since(PhaseTimes.Phase.LS, start);
+            reusable = true;
+            if (!keepComplete) {
+                files.removeIf(e -> isComplete(localDir.resolve(e.getName()), e.getAttributes()));
+            }
+            return files;
+        } catch (IOException e) {
+            final String err = "Cannot list " + remoteDir + ": " + e.getMessage();
+            logger.log(Level.SEVERE, err, e);
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            if (session != null) {
+                if (reusable && session.isOpen()) pool.release(session);
+                else pool.invalidate(session);
+            }
+        }
+    }
+    
+    /** Takes files from the queue until it is empty, on one session. */
+    private void work(Config.FolderConfig folder, Path localDir, Queue<RemoteResourceInfo> queue, Counts counts,
+                      PhaseTimes cycleTimes) {
+        final PhaseTimes times = new PhaseTimes();
+        SftpSessionPool.Session session = null;
+        boolean reusable = false;
+        try {
+            RemoteResourceInfo file;
+            while (!draining.getAsBoolean() && (file = queue.poll()) != null) {
+                if (session == null || !session.isOpen()) {
+                    // First file, or the previous download was aborted (stall)
+                    if (session != null) pool.invalidate(session);
+                    session = null;
+                    session = pool.borrow(times);
+                }
+                try {
+                    final long bytes = downloadOne(folder, session, localDir, file, times);
+                    if (bytes == ALREADY_COMPLETE) {
+                        counts.skipped.incrementAndGet();
+                    } else if (bytes == NAME_TAKEN) {
+                        counts.conflicts.incrementAndGet();
+                    } else {
+                        counts.downloaded.incrementAndGet();
+                        counts.bytes.addAndGet(bytes);
+                    }
+                } catch (IOException e) {
+                    counts.failed.incrementAndGet();
+                    final String err = "Failed to download " + file.getPath() + ": " + e.getMessage();
+                    logger.log(Level.SEVERE, err, e);
+                }
+            }
+            reusable = true;
+        } catch (IOException e) {
+            final String err = "SFTP session failed: " + e.getMessage();
+            logger.log(Level.SEVERE, err, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (session != null) {
+                if (reusable && !draining.getAsBoolean() && session.isOpen()) pool.release(session);
+                else pool.invalidate(session);
+            }
+            synchronized (cycleTimes) {
+                cycleTimes.addAll(times);
+            }
+        }
+    }
+    
+    /**
+     * Downloads one file via a local {@code .part} file and applies the remote post action.
+     *
+     * @return the number of bytes received, {@link #ALREADY_COMPLETE}, or {@link #NAME_TAKEN} if a different
+     *         local file has the same name
+     */
+    private long downloadOne(Config.FolderConfig folder, SftpSessionPool.Session session, Path localDir,
+                             RemoteResourceInfo file, PhaseTimes times) throws IOException {
+        final String remotePath = file.getPath();
+        final Path target = localDir.resolve(file.getName());
+        final FileAttributes attrs = file.getAttributes();
+        
+        if (isComplete(target, attrs)) {
+            final String fine = "Already downloaded: " + target;
+            logger.fine(fine);
+            remotePostAction(folder, session.sftp(), remotePath, file.getName(), times);
+            return ALREADY_COMPLETE;
+        }
+        if (Files.exists(target)) {
+            warnNameTaken(remotePath, target);
+            return NAME_TAKEN;
+        }
+        if (dryRun) {
+            final String msg = "[DRY-RUN] Would download " + remotePath + " -> " + target;
+            logger.info(msg::toString);
+            remotePostAction(folder, session.sftp(), remotePath, file.getName(), times);
+            return 0;
+        }
+        
+        final Path part = localDir.resolve(file.getName() + PART_SUFFIX);
+        final long start = System.nanoTime();
+        final long bytes = transfer(session, remotePath, part, attrs.getSize(), attrs.getMtime() * 1000);
+        times.since(PhaseTimes.Phase.GET, start);
+        
+        final long received = Files.size(part);
+        if (received != attrs.getSize()) {
+            // The remote file changed while it was read; start over next cycle
+            resumeStore.remove(part);
+            Files.deleteIfExists(part);
+            throw new IOException("Size changed during download: " + received + " bytes instead of " + attrs.getSize());
+        }
+        Files.setLastModifiedTime(part, FileTime.fromMillis(attrs.getMtime() * 1000));
+        try {
+            FileClaimer.moveNoReplace(part, target);
+        } catch (FileAlreadyExistsException e) {
+            // Created locally while downloading; the complete part file is renamed once the name is free
+            warnNameTaken(remotePath, target);
+            return NAME_TAKEN;
+        }
+        resumeStore.remove(part);
+        
+        final long nanos = System.nanoTime() - start;
+        final long bytesPerSecond = (nanos > 0) ? (long) (bytes / (nanos / 1e9)) : 0;
+        final String msg = String.format(Locale.ROOT, "Downloaded %s -> %s (%d bytes in %d ms, %d KiB/s)",
+                remotePath, target, bytes, TimeUnit.NANOSECONDS.toMillis(nanos), bytesPerSecond / 1024);
+        logger.info(msg::toString);
+        
+        remotePostAction(folder, session.sftp(), remotePath, file.getName(), times);
+        return bytes;
+    }
+    
+    private void warnNameTaken(String remotePath, Path target) {
+        final String warn = "Not downloading " + remotePath + ": " + target
+                + " already exists with a different size or modification time; move it away to download the remote file";
+        logger.warning(warn);
+    }
+    
+    /** Streams the remote file into the part file with read-ahead, continuing a matching part file. */
+    private long transfer(SftpSessionPool.Session session, String remotePath, Path part, long size, long lastModifiedMillis)
+            throws IOException {
+        final SFTPClient sftp = session.sftp();
+        final PipelineTuner tuner = session.tuner();
+        final long offset = resumeOffset(part, remotePath, size, lastModifiedMillis);
+        if (offset == 0) {
+            resumeStore.put(part, new ResumeStore.Checkpoint(size, lastModifiedMillis, 0, remotePath));
+        }
+        final long start = System.nanoTime();
+        long bytes = 0;
+        int depth;
+        final int chunk = tuner.chunkSize();
+        
+        MemoryBudget.Reservation reservation = null;
+        try (RemoteFile rf = sftp.open(remotePath, EnumSet.of(OpenMode.READ))) {
+            tuner.observeRoundTrip(System.nanoTime() - start);
+            try {
+                reservation = budget.reserve(tuner.depth(), chunk);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for transfer buffer memory");
+            }
+            depth = reservation.depth();
+            
+            final InFlightTransfer progress = new InFlightTransfer(part, remotePath, size, lastModifiedMillis, offset,
+                    depth, chunk, () -> pool.abort(session));
+            inFlight.put(part, progress);
+            final Set<StandardOpenOption> options = (offset > 0)
+                    ? EnumSet.of(StandardOpenOption.WRITE, StandardOpenOption.APPEND)
+                    : EnumSet.of(StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+            try (InputStream in = rf.new ReadAheadRemoteFileInputStream(depth, offset);
+                 FileChannel out = FileChannel.open(part, options)) {
+                final byte[] buf = new byte[chunk];
+                int n;
+                while ((n = in.read(buf)) > 0) {
+                    final ByteBuffer bb = ByteBuffer.wrap(buf, 0, n);
+                    while (bb.hasRemaining()) {
+                        out.write(bb);
+                    }
+                    progress.advance(n);
+                    bytes += n;
+                }
+                out.force(true);
+            } finally {
+                inFlight.remove(part);
+            }
+        } finally {
+            if (reservation != null) budget.release(reservation);
+        }
+        
+        if (depth == tuner.depth() && tuner.observeTransfer(bytes, System.nanoTime() - start, chunk)) {
+            final String fine = String.format(Locale.ROOT, "Pipeline depth raised to %d (RTT %.1f ms)",
+                    tuner.depth(), tuner.rttMillis());
+            logger.fine(fine);
+        }
+        return bytes;
+    }
+    
+    /** End of the part file if its checkpoint still matches the remote file, otherwise 0. */
+    private long resumeOffset(Path part, String remotePath, long size, long lastModifiedMillis) throws IOException {
+        final ResumeStore.Checkpoint cp = resumeStore.get(part);
+        if (cp == null || !Files.exists(part)) return 0;
+        
+        final long have = Files.size(part);
+        if (cp.size != size || cp.lastModifiedMillis != lastModifiedMillis || !cp.remotePath.equals(remotePath) || have > size) {
+            resumeStore.remove(part);
+            return 0;
+        }
+        final String msg = "Resuming download of " + remotePath + " at " + have + "/" + size + " bytes";
+        logger.info(msg::toString);
+        return have;
+    }
+    
+    /** Deletes the remote file, or moves it into the remote archiveDir. */
+    private void remotePostAction(Config.FolderConfig folder, SFTPClient sftp, String remotePath, String name,
+                                  PhaseTimes times) throws IOException {
+        final String action = (folder.getPostAction() != null) ? folder.getPostAction().toLowerCase() : "none";
+        switch (action) {
+            case "delete" -> {
+                if (dryRun) {
+                    final String msg = "[DRY-RUN] Would delete remote " + remotePath;
+                    logger.info(msg::toString);
+                    return;
+                }
+                final long start = System.nanoTime();
+                sftp.rm(remotePath);
+                times.since(PhaseTimes.Phase.RM, start);
+                final String fine = "Deleted remote " + remotePath;
+                logger.fine(fine);
+            }
+            case "archive" -> {
+                final String target = SftpUploader.joinRemote(folder.getArchiveDir(), name);
+                if (dryRun) {
+                    final String msg = "[DRY-RUN] Would move remote " + remotePath + " -> " + target;
+                    logger.info(msg::toString);
+                    return;
+                }
+                final long start = System.nanoTime();
+                if (!knownArchiveDirs.contains(folder.getArchiveDir())) {
+                    sftp.mkdirs(folder.getArchiveDir());
+                    knownArchiveDirs.add(folder.getArchiveDir());
+                }
+                try { sftp.rm(target); } catch (IOException ignored) {}
+                sftp.rename(remotePath, target);
+                times.since(PhaseTimes.Phase.RENAME, start);
+                final String fine = "Archived remote " + remotePath + " -> " + target;
+                logger.fine(fine);
+            }
+            default -> {
+                final String fine = "Post action 'none' for " + remotePath;
+                logger.fine(fine);
+            }
+        }
+    }
+    
+    /** True if the local file has the remote file's size and modification time (set after each download). */
+    private static boolean isComplete(Path target, FileAttributes remote) {
+        try {
+            final BasicFileAttributes local = Files.readAttributes(target, BasicFileAttributes.class);
+            return local.isRegularFile() && local.size() == remote.getSize()
+                    && local.lastModifiedTime().toMillis() / 1000 == remote.getMtime();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+    
+    /** Names from the server end up in a local path; refuse anything that is not a plain file name. */
+    private static boolean isPlainName(String name) {
+        return !name.isEmpty() && !name.equals(".") && !name.equals("..")
+                && name.indexOf('/') < 0 && name.indexOf('\\') < 0;
+    }
+}
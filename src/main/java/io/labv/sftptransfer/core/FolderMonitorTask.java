@@ -25,13 +25,28 @@ public class FolderMonitorTask implements Runnable {
     
     @Override
     public void run() {
+        runCycle();
+    }
+    
+    /**
+     * Runs one cycle.
+     *
+     * @return the number of files transferred or found already delivered, 0 if the cycle failed
+     */
+    public int runCycle() {
         try {
             logger.fine(() -> "Starting cycle for folder: " + folder.getPath());
-            uploader.processFolderOnce(folder);
+            int found = uploader.processFolderOnce(folder);
             logger.fine(() -> "Completed cycle for folder: " + folder.getPath());
+            return found;
         } catch (Exception e) {
             // Defensive catch to ensure scheduler continues even if one cycle fails
             logger.log(Level.SEVERE, "Error while processing folder " + folder.getPath() + ": " + e.getMessage(), e);
+            return 0;
         }
     }
+    
+    public Config.FolderConfig getFolder() {
+        return folder;
+    }
 }
@@ -0,0 +1,117 @@
+package io.labv.sftptransfer.core;
+
+import io.labv.sftptransfer.config.Config;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Lists the matching files of a folder and remembers the result per folder.
+ * <p>
+ * Adding, removing or renaming an entry updates the directory's modification time. If it is unchanged
+ * since the last scan, the previous result is reused without enumerating the directory again, which
+ * matters on slow network shares. Files rewritten in place do not touch the directory, so their
+ * cached size and mtime may be stale until the periodic full rescan.
+ */
+final class FolderScanner {
+    
+    /** Default seconds between full rescans of an unchanged directory. */
+    static final int DEFAULT_FULL_RESCAN_SECONDS = 600;
+    
+    /**
+     * Directory timestamps are coarse on some filesystems (FAT: 2 s, some NFS servers: 1 s). A cached
+     * listing is only trusted if the directory was last modified clearly before that listing started.
+     */
+    private static final long MTIME_GRANULARITY_MILLIS = 2_000;
+    
+    private final Map<Path, ScanState> cache = new ConcurrentHashMap<>();
+    private final Map<List<String>, FilePatternMatcher> matchers = new ConcurrentHashMap<>();
+    private final int maxEntries;
+    
+    /** @param maxEntries files returned per scan at most (memory budget); further files wait for the next scan */
+    FolderScanner(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+    
+    /** Scan state of one folder as of its last full listing. */
+    private static final class ScanState {
+        final List<String> patterns;
+        final long dirMtime;
+        final long listedAt;
+        final List<ScannedFile> entries;
+        
+        ScanState(List<String> patterns, long dirMtime, long listedAt, List<ScannedFile> entries) {
+            this.patterns = patterns;
+            this.dirMtime = dirMtime;
+            this.listedAt = listedAt;
+            this.entries = entries;
+        }
+    }
+    
+    /** Returns the matching regular files of the folder in directory order. The list is mutable. */
+    List<ScannedFile> scan(Path dir, Config.FolderConfig folder) {
+        final long now = System.currentTimeMillis();
+        final long rescanMillis = 1000L * ((folder.getFullRescanSeconds() != null)
+                ? folder.getFullRescanSeconds() : DEFAULT_FULL_RESCAN_SECONDS);
+        
+        final long dirMtime;
+        try {
+            dirMtime = Files.getLastModifiedTime(dir).toMillis();
+        } catch (IOException e) {
+            cache.remove(dir);
+            return new ArrayList<>();
+        }
+        
+        final ScanState cached = cache.get(dir);
+        if (rescanMillis > 0
+                && cached != null
+                && cached.dirMtime == dirMtime
+                && cached.dirMtime < cached.listedAt - MTIME_GRANULARITY_MILLIS
+                && now - cached.listedAt < rescanMillis
+                && cached.patterns.equals(folder.getPattern())) {
+            return new ArrayList<>(cached.entries);
+        }
+        
+        final FilePatternMatcher matcher = matchers.computeIfAbsent(List.copyOf(folder.getPattern()), FilePatternMatcher::compile);
+        final List<ScannedFile> entries = listMatchingFiles(dir, matcher, maxEntries);
+        if (entries != null) {
+            // A capped listing is incomplete and must not be reused
+            if (rescanMillis > 0 && entries.size() < maxEntries) {
+                cache.put(dir, new ScanState(List.copyOf(folder.getPattern()), dirMtime, now, List.copyOf(entries)));
+            }
+            return entries;
+        }
+        cache.remove(dir);
+        return new ArrayList<>();
+    }
+    
+    /** Returns null if the directory could not be listed. Stops after maxEntries files. */
+    private static List<ScannedFile> listMatchingFiles(Path dir, FilePatternMatcher matcher, int maxEntries) {
+        final List<ScannedFile> result = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+            for (Path p : ds) {
+                if (result.size() >= maxEntries) break;
+                if (!matcher.matches(p.getFileName().toString())) continue;
+                try {
+                    final BasicFileAttributes attrs = Files.readAttributes(p, BasicFileAttributes.class);
+                    if (attrs.isRegularFile()) {
+                        result.add(new ScannedFile(p, attrs));
+                    }
+                } catch (IOException ignored) {
+                    // File vanished or is unreadable; it will be picked up again next cycle.
+                }
+            }
+        } catch (IOException ignored) {
+            // Listing failure is non-fatal; caller logs cycle-level errors.
+            return null;
+        }
+        return result;
+    }
+}
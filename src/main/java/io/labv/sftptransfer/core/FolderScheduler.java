@@ -0,0 +1,138 @@
+package io.labv.sftptransfer.core;
+
+import io.labv.sftptransfer.config.Config;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Schedules the periodic cycles of folders, either at a fixed rate or adaptively
+ * (see {@link AdaptiveInterval}).
+ * <p>
+ * Folders are tracked by path so they can be rescheduled or cancelled on config reload. A cycle that is
+ * already running when its folder is cancelled finishes normally; cycles of the same path never overlap,
+ * even across a reschedule.
+ */
+public class FolderScheduler {
+    
+    private final ScheduledExecutorService executor;
+    private final Logger logger;
+    private final Map<String, Scheduled> scheduled = new ConcurrentHashMap<>();
+    private final Map<String, Object> cycleLocks = new ConcurrentHashMap<>();
+    
+    public FolderScheduler(ScheduledExecutorService executor, Logger logger) {
+        this.executor = Objects.requireNonNull(executor, "executor");
+        this.logger = Objects.requireNonNull(logger, "logger");
+    }
+    
+    /**
+     * Schedules the folder with the given base interval; adaptive folders use it as the starting point.
+     * An existing schedule for the same path is replaced.
+     */
+    public void schedule(Config.FolderConfig folder, SftpUploader uploader, long intervalSeconds) {
+        cancel(folder.getPath());
+        
+        final FolderMonitorTask task = new FolderMonitorTask(folder, uploader, logger);
+        final Object lock = cycleLocks.computeIfAbsent(folder.getPath(), k -> new Object());
+        final Scheduled entry = new Scheduled();
+        scheduled.put(folder.getPath(), entry);
+        
+        if (!Boolean.TRUE.equals(folder.getAdaptiveInterval())) {
+            synchronized (entry) {
+                entry.future = executor.scheduleAtFixedRate(() -> {
+                    synchronized (lock) {
+                        task.runCycle();
+                    }
+                }, 0, intervalSeconds, TimeUnit.SECONDS);
+            }
+            logger.info(() -> String.format("Scheduled folder '%s' every %d seconds", folder.getPath(), intervalSeconds));
+            return;
+        }
+        
+        final long min = (folder.getMinIntervalSeconds() != null) ? folder.getMinIntervalSeconds() : 1;
+        // Without an explicit maximum, the interval is the upper bound, but never below the minimum
+        final long max = (folder.getMaxIntervalSeconds() != null) ? folder.getMaxIntervalSeconds() : Math.max(min, intervalSeconds);
+        final AdaptiveInterval interval = new AdaptiveInterval(intervalSeconds, min, max);
+        submit(new AdaptiveRun(task, interval, lock, entry), interval.initialDelayMillis());
+        logger.info(() -> String.format("Scheduled folder '%s' adaptively between %d and %d seconds", folder.getPath(), min, max));
+    }
+    
+    /** Stops scheduling the folder; a running cycle is not interrupted. */
+    public void cancel(String path) {
+        final Scheduled entry = scheduled.remove(path);
+        if (entry != null) {
+            entry.cancel();
+        }
+    }
+    
+    /** Paths of all scheduled folders. */
+    public Set<String> scheduledPaths() {
+        return Set.copyOf(scheduled.keySet());
+    }
+    
+    private void submit(AdaptiveRun run, long delayMillis) {
+        try {
+            synchronized (run.entry) {
+                if (!run.entry.cancelled) {
+                    run.entry.future = executor.schedule(run, delayMillis, TimeUnit.MILLISECONDS);
+                }
+            }
+        } catch (RejectedExecutionException e) {
+            // Scheduler is shutting down
+        }
+    }
+    
+    /** Handle of one folder's schedule; the future changes with every adaptive run. */
+    private static final class Scheduled {
+        
+        private Future<?> future;   // guarded by this
+        private boolean cancelled;  // guarded by this
+        
+        synchronized void cancel() {
+            cancelled = true;
+            if (future != null) {
+                future.cancel(false);
+            }
+        }
+        
+        synchronized boolean isCancelled() {
+            return cancelled;
+        }
+    }
+    
+    /** Runs one cycle and schedules the next one based on its result. */
+    private final class AdaptiveRun implements Runnable {
+        
+        private final FolderMonitorTask task;
+        private final AdaptiveInterval interval;
+        private final Object lock;
+        private final Scheduled entry;
+        
+        AdaptiveRun(FolderMonitorTask task, AdaptiveInterval interval, Object lock, Scheduled entry) {
+            this.task = task;
+            this.interval = interval;
+            this.lock = lock;
+            this.entry = entry;
+        }
+        
+        @Override
+        public void run() {
+            if (entry.isCancelled()) return;
+            final int handled;
+            synchronized (lock) {
+                handled = task.runCycle();
+            }
+            interval.onScan(handled);
+            final long delay = interval.nextDelayMillis();
+            logger.finer(() -> "Next scan of '" + task.getFolder().getPath() + "' in " + delay + " ms");
+            submit(this, delay);
+        }
+    }
+}
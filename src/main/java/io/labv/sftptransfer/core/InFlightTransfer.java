@@ -0,0 +1,97 @@
+package io.labv.sftptransfer.core;
+
+import java.nio.file.Path;
+
+/**
+ * Progress of one upload or download that is currently streaming, used to checkpoint it if it has to be
+ * aborted and by the {@link StallWatchdog} to measure its throughput. For downloads, the local file is the
+ * {@code .part} file being written.
+ */
+final class InFlightTransfer {
+    
+    private final Path localFile;
+    private final String remotePath;
+    private final long size;
+    private final long lastModifiedMillis;
+    private final int depth;
+    private final int chunk;
+    private final Runnable abort;
+    private volatile long bytesWritten;
+    private volatile boolean stalled;
+    
+    /* Throughput window; only used by the watchdog thread */
+    private long windowStartNanos;
+    private long windowStartBytes;
+    
+    InFlightTransfer(Path localFile, String remotePath, long size, long lastModifiedMillis,
+            long startOffset, int depth, int chunk, Runnable abort) {
+        this.localFile = localFile;
+        this.remotePath = remotePath;
+        this.size = size;
+        this.lastModifiedMillis = lastModifiedMillis;
+        this.depth = depth;
+        this.chunk = chunk;
+        this.abort = abort;
+        this.bytesWritten = startOffset;
+        this.windowStartNanos = System.nanoTime();
+        this.windowStartBytes = startOffset;
+    }
+    
+    void advance(int n) {
+        bytesWritten += n;
+    }
+    
+    Path localFile() {
+        return localFile;
+    }
+    
+    String remotePath() {
+        return remotePath;
+    }
+    
+    long size() {
+        return size;
+    }
+    
+    long lastModifiedMillis() {
+        return lastModifiedMillis;
+    }
+    
+    long bytesWritten() {
+        return bytesWritten;
+    }
+    
+    /**
+     * Offset up to which the remote file is known to be complete.
+     * Up to depth + 1 write requests may still be unacknowledged, so those bytes are not counted.
+     */
+    long confirmedOffset() {
+        return Math.max(0, bytesWritten - (long) (depth + 1) * chunk);
+    }
+    
+    /** Breaks the connection of this upload; the uploading thread then fails with an IOException. */
+    void abort() {
+        abort.run();
+    }
+    
+    boolean isStalled() {
+        return stalled;
+    }
+    
+    void markStalled() {
+        stalled = true;
+    }
+    
+    long windowStartNanos() {
+        return windowStartNanos;
+    }
+    
+    long windowStartBytes() {
+        return windowStartBytes;
+    }
+    
+    void startWindow(long nowNanos) {
+        windowStartNanos = nowNanos;
+        windowStartBytes = bytesWritten;
+    }
+}
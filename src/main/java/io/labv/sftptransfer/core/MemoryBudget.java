@@ -0,0 +1,135 @@
+package io.labv.sftptransfer.core;
+
+import io.labv.sftptransfer.config.Config;
+
+import java.util.Locale;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Splits the optional {@code memoryBudgetMb} into caps for the parts of the daemon that grow with the workload:
+ * <ul>
+ *   <li>half for transfer buffers: each upload reserves (depth + 1) * chunk bytes, the data sshj may hold for
+ *       unacknowledged writes; if the reservation does not fit, the upload runs with a shallower pipeline,
+ *       and at depth 1 it waits for another upload to finish</li>
+ *   <li>a fifth for SSH sessions (estimated {@value #SESSION_BYTES} bytes each), which also caps parallel folders</li>
+ *   <li>a tenth for scan results per folder (estimated {@value #SCAN_ENTRY_BYTES} bytes per file); further files
+ *       are picked up in the next cycle</li>
+ *   <li>a tenth for the dedup caches</li>
+ * </ul>
+ * Without a budget, nothing is capped and the methods only pass their input through.
+ */
+public final class MemoryBudget {
+    
+    static final long SESSION_BYTES = 2L * 1024 * 1024;
+    static final long SCAN_ENTRY_BYTES = 512;
+    static final long INDEX_ENTRY_BYTES = 320;
+    
+    private static final int KIB = 1024;
+    
+    private final long budgetBytes;
+    private final int bufferKib;
+    private final Semaphore buffers;   // permits in KiB; null without a budget
+    private final AtomicInteger usedKib = new AtomicInteger();
+    private final AtomicInteger peakKib = new AtomicInteger();
+    private final AtomicLong degraded = new AtomicLong();
+    
+    /** Buffer reservation of one upload. */
+    static final class Reservation {
+        private final int depth;
+        private final int kib;
+        
+        private Reservation(int depth, int kib) {
+            this.depth = depth;
+            this.kib = kib;
+        }
+        
+        /** Pipeline depth the upload may use. */
+        int depth() {
+            return depth;
+        }
+    }
+    
+    private MemoryBudget(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+        this.bufferKib = (int) Math.min(Integer.MAX_VALUE, budgetBytes / 2 / KIB);
+        this.buffers = (budgetBytes > 0) ? new Semaphore(bufferKib, true) : null;
+    }
+    
+    public static MemoryBudget of(Config config) {
+        final Integer mb = config.getMemoryBudgetMb();
+        return new MemoryBudget((mb != null) ? mb * 1024L * 1024 : 0);
+    }
+    
+    public boolean isLimited() {
+        return buffers != null;
+    }
+    
+    /** Session limit from the budget, combined with the configured one; null if neither applies. */
+    public Integer maxSessions(Integer configured) {
+        if (!isLimited()) return configured;
+        final int byBudget = (int) Math.max(1, budgetBytes / 5 / SESSION_BYTES);
+        return (configured != null) ? Math.min(configured, byBudget) : byBudget;
+    }
+    
+    int maxScanEntries() {
+        return isLimited() ? (int) Math.max(100, Math.min(Integer.MAX_VALUE, budgetBytes / 10 / SCAN_ENTRY_BYTES)) : Integer.MAX_VALUE;
+    }
+    
+    /** Entries for each dedup cache, or the given default without a budget. */
+    int maxIndexEntries(int unlimitedDefault) {
+        return isLimited() ? (int) Math.max(100, Math.min(unlimitedDefault, budgetBytes / 20 / INDEX_ENTRY_BYTES)) : unlimitedDefault;
+    }
+    
+    /**
+     * Reserves buffer memory for an upload, reducing the pipeline depth until it fits. Waits only if
+     * not even depth 1 fits.
+     */
+    Reservation reserve(int depth, int chunk) throws InterruptedException {
+        if (!isLimited()) return new Reservation(depth, 0);
+        
+        final int chunkKib = Math.max(1, (chunk + KIB - 1) / KIB);
+        for (int d = depth; d >= 1; d /= 2) {
+            final long need = (long) (d + 1) * chunkKib;
+            // A depth that needs more than the whole buffer budget must not be granted, even when nothing else runs
+            if (need > bufferKib) continue;
+            final int kib = (int) need;
+            if (buffers.tryAcquire(kib)) {
+                if (d < depth) degraded.incrementAndGet();
+                return granted(d, kib);
+            }
+        }
+        // Depth 1 is the minimum; a chunk larger than the budget gets the whole budget
+        final int kib = (int) Math.min(bufferKib, 2L * chunkKib);
+        degraded.incrementAndGet();
+        buffers.acquire(kib);
+        return granted(1, kib);
+    }
+    
+    void release(Reservation r) {
+        if (r.kib == 0) return;
+        usedKib.addAndGet(-r.kib);
+        buffers.release(r.kib);
+    }
+    
+    /** Usage line for the logs, e.g. "buffers 256/32768 KiB (peak 4096 KiB), 3 degraded transfer(s)". */
+    String usage() {
+        return String.format(Locale.ROOT, "buffers %d/%d KiB (peak %d KiB), %d degraded transfer(s)",
+                usedKib.get(), bufferKib, peakKib.get(), degraded.get());
+    }
+    
+    /** One line describing the caps, for startup. */
+    String describe(Integer configuredSessions) {
+        return String.format(Locale.ROOT,
+                "Memory budget %d MiB: transfer buffers %d KiB, max %d session(s), max %d scanned file(s) per folder, max heap %d MiB",
+                budgetBytes / (1024 * 1024), bufferKib, maxSessions(configuredSessions), maxScanEntries(),
+                Runtime.getRuntime().maxMemory() / (1024 * 1024));
+    }
+    
+    private Reservation granted(int depth, int kib) {
+        final int used = usedKib.addAndGet(kib);
+        peakKib.accumulateAndGet(used, Math::max);
+        return new Reservation(depth, kib);
+    }
+}
@@ -10,7 +10,6 @@ import java.io.FileFilter;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -55,15 +54,12 @@ public class MonitorTask implements Runnable {
             return Collections.emptyList();
         }
         
-        List<File> matchingFiles = new ArrayList<>();
-        for (String pattern : folder.getPattern()) {
-            @SuppressWarnings("deprecation")
-            File[] files = dir.listFiles((FileFilter) new WildcardFileFilter(pattern, IOCase.SYSTEM));
-            if (files != null) {
-                matchingFiles.addAll(Arrays.asList(files));
-            }
-        }
-        return matchingFiles;
+        // One listing for all patterns; each file is returned once even if several patterns match.
+        // Only * and ? are wildcards here, as before; brackets and braces match literally.
+        @SuppressWarnings("deprecation")
+        FileFilter filter = new WildcardFileFilter(folder.getPattern(), IOCase.SYSTEM);
+        File[] files = dir.listFiles(f -> f.isFile() && filter.accept(f));
+        return (files != null) ? Arrays.asList(files) : Collections.emptyList();
     }
     
     private void processFile(File file, Config.FolderConfig folder) {
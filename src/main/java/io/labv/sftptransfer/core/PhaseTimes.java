@@ -0,0 +1,53 @@
+package io.labv.sftptransfer.core;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time spent per phase of a file or a cycle. Two {@code nanoTime} calls per phase, no allocation;
+ * not thread-safe, each file and cycle has its own instance.
+ */
+final class PhaseTimes {
+    
+    enum Phase {
+        CONNECT("connect"), AUTH("auth"), STAT("stat"), LS("ls"), HASH("hash"), PUT("put"), GET("get"), RM("rm"), RENAME("rename");
+        
+        private final String label;
+        
+        Phase(String label) {
+            this.label = label;
+        }
+    }
+    
+    private final long[] nanos = new long[Phase.values().length];
+    
+    void add(Phase phase, long elapsedNanos) {
+        nanos[phase.ordinal()] += elapsedNanos;
+    }
+    
+    /** Adds the time elapsed since {@code startNanos} and returns the current time for the next phase. */
+    long since(Phase phase, long startNanos) {
+        final long now = System.nanoTime();
+        nanos[phase.ordinal()] += now - startNanos;
+        return now;
+    }
+    
+    void addAll(PhaseTimes other) {
+        for (int i = 0; i < nanos.length; i++) {
+            nanos[i] += other.nanos[i];
+        }
+    }
+    
+    /** Non-zero phases, e.g. "stat 2 ms, put 1840 ms, rename 3 ms". */
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        for (Phase p : Phase.values()) {
+            final long n = nanos[p.ordinal()];
+            if (n == 0) continue;
+            if (sb.length() > 0) sb.append(", ");
+            sb.append(String.format(Locale.ROOT, "%s %d ms", p.label, TimeUnit.NANOSECONDS.toMillis(n)));
+        }
+        return sb.length() > 0 ? sb.toString() : "no remote calls";
+    }
+}
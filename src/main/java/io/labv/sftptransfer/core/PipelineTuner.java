@@ -0,0 +1,83 @@
+package io.labv.sftptransfer.core;
+
+import io.labv.sftptransfer.config.Config;
+
+/**
+ * Holds the SFTP write pipeline settings (outstanding requests, chunk size) for one SSH session.
+ * <p>
+ * In auto-tune mode the pipeline depth starts at sshj's default and is doubled whenever a
+ * transfer was limited by the pipeline itself (throughput close to depth * chunk / RTT),
+ * up to the configured maximum. Links that are bandwidth-bound keep their current depth.
+ * Instances are not shared between sessions and are not thread-safe.
+ */
+public class PipelineTuner {
+    
+    static final int DEFAULT_OUTSTANDING_REQUESTS = 16;
+    static final int DEFAULT_CHUNK_SIZE = 32 * 1024;
+    static final int AUTO_TUNE_MAX_OUTSTANDING_REQUESTS = 256;
+    
+    /** A transfer counts as pipeline-bound if it reached this share of the pipeline's theoretical rate. */
+    private static final double PIPELINE_BOUND_RATIO = 0.8;
+    
+    private final boolean autoTune;
+    private final int maxDepth;
+    private final int chunkSize;
+    
+    private int depth;
+    private long rttNanos = -1;
+    
+    public PipelineTuner(Config.SftpConfig sftp) {
+        this.autoTune = sftp.isAutoTunePipeline();
+        this.chunkSize = (sftp.getWriteChunkSize() != null) ? sftp.getWriteChunkSize() : DEFAULT_CHUNK_SIZE;
+        
+        final Integer configured = sftp.getMaxOutstandingRequests();
+        if (autoTune) {
+            this.maxDepth = (configured != null) ? configured : AUTO_TUNE_MAX_OUTSTANDING_REQUESTS;
+            this.depth = Math.min(DEFAULT_OUTSTANDING_REQUESTS, maxDepth);
+        } else {
+            this.maxDepth = (configured != null) ? configured : DEFAULT_OUTSTANDING_REQUESTS;
+            this.depth = maxDepth;
+        }
+    }
+    
+    /** Current number of unacknowledged write requests allowed per transfer. */
+    public int depth() {
+        return depth;
+    }
+    
+    /** Configured write request payload size in bytes (before capping to the server's packet limit). */
+    public int chunkSize() {
+        return chunkSize;
+    }
+    
+    /** Records the duration of a single request/response exchange (e.g. a {@code stat}). */
+    public void observeRoundTrip(long nanos) {
+        if (nanos <= 0) return;
+        rttNanos = (rttNanos < 0) ? nanos : Math.min(rttNanos, nanos);
+    }
+    
+    /**
+     * Records a completed transfer and grows the pipeline if it was pipeline-bound.
+     *
+     * @return true if the depth was changed
+     */
+    public boolean observeTransfer(long bytes, long nanos, int usedChunkSize) {
+        if (!autoTune || rttNanos <= 0 || nanos <= 0 || depth >= maxDepth) return false;
+        
+        // Transfers that never filled the pipeline tell us nothing about its limit
+        final long pipelineBytes = (long) depth * usedChunkSize;
+        if (bytes < 2 * pipelineBytes) return false;
+        
+        final double observedRate = bytes / (nanos / 1e9);
+        final double pipelineRate = pipelineBytes / (rttNanos / 1e9);
+        if (observedRate < PIPELINE_BOUND_RATIO * pipelineRate) return false;
+        
+        depth = Math.min(maxDepth, depth * 2);
+        return true;
+    }
+    
+    /** Last observed round-trip time in milliseconds, or -1 if unknown. */
+    public double rttMillis() {
+        return (rttNanos < 0) ? -1 : rttNanos / 1e6;
+    }
+}
@@ -0,0 +1,393 @@
+package io.labv.sftptransfer.core;
+
+import io.labv.sftptransfer.config.Config;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Runs post-actions (archive, delete) on worker threads so the upload thread can continue with the next
+ * file instead of waiting on local disk.
+ * <p>
+ * The queue is bounded; when it is full, {@link #submit} blocks and the uploads slow down to the pace of
+ * the local disk. Files with a pending post-action are reported by {@link #isPending} so that the next
+ * scan does not upload them again; the set of pending files is shared with the stages of other uploaders
+ * on the same state (see {@link UploaderState}).
+ * <p>
+ * Archive moves try an atomic rename first. If the archive is on another volume, the file is copied
+ * into a temporary file next to the target, fsynced, renamed into place and only then deleted.
+ * For layout "daily-zip", each batch is streamed into its own bundle {@code archiveDir/yyyy-MM-dd_HHmmssSSS.zip},
+ * so earlier bundles of the day are never read or rewritten.
+ */
+final class PostActionStage {
+    
+    static final int DEFAULT_QUEUE_SIZE = 1000;
+    
+    /** Jobs for daily zip bundles are collected up to this many per bundle write. */
+    private static final int MAX_BUNDLE_BATCH = 500;
+    private static final int BUNDLE_BUFFER = 256 * 1024;
+    private static final DateTimeFormatter BUNDLE_TIME = DateTimeFormatter.ofPattern("HHmmssSSS", Locale.ROOT);
+    
+    private final Logger logger;
+    private final boolean dryRun;
+    private final long slowNanos;
+    private final BlockingQueue<Job> queue;
+    private final Set<Path> pending = ConcurrentHashMap.newKeySet();      // this stage's jobs
+    private final Set<Path> sharedPending;                                // all stages on the same state
+    private final Object bundleLock = new Object();
+    private final List<Thread> workers = new ArrayList<>();
+    
+    private static final class Job {
+        final Config.FolderConfig folder;
+        final Path file;
+        final FileClaimer claimer;
+        
+        Job(Config.FolderConfig folder, Path file, FileClaimer claimer) {
+            this.folder = folder;
+            this.file = file;
+            this.claimer = claimer;
+        }
+    }
+    
+    PostActionStage(int threads, int queueSize, Integer slowThresholdSeconds, Set<Path> sharedPending, boolean dryRun,
+                    Logger logger) {
+        this.sharedPending = sharedPending;
+        this.logger = logger;
+        this.dryRun = dryRun;
+        this.slowNanos = (slowThresholdSeconds != null) ? TimeUnit.SECONDS.toNanos(slowThresholdSeconds) : Long.MAX_VALUE;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        for (int i = 0; i < threads; i++) {
+            final Thread t = new Thread(this::work, "post-action-" + (i + 1));
+            t.setDaemon(true);
+            t.start();
+            workers.add(t);
+        }
+    }
+    
+    /**
+     * Queues the post-action for an uploaded file; blocks while the queue is full.
+     * If the file is still in place afterwards (action "none" or failure), it is released to the claimer.
+     */
+    void submit(Config.FolderConfig folder, Path file, FileClaimer claimer) throws InterruptedException {
+        if (dryRun) {
+            // Nothing is modified; log inline so the dry-run output stays in order
+            perform(List.of(new Job(folder, file, claimer)));
+            return;
+        }
+        pending.add(file);
+        sharedPending.add(file);
+        try {
+            queue.put(new Job(folder, file, claimer));
+        } catch (InterruptedException e) {
+            pending.remove(file);
+            sharedPending.remove(file);
+            throw e;
+        }
+    }
+    
+    /** True while the file waits for or undergoes its post-action, in this or another stage on the same state. */
+    boolean isPending(Path file) {
+        return sharedPending.contains(file);
+    }
+    
+    /** Waits until all post-actions queued in this stage are done. Returns false on timeout. */
+    boolean awaitEmpty(long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!pending.isEmpty()) {
+            if (System.nanoTime() >= deadline) return false;
+            TimeUnit.MILLISECONDS.sleep(50);
+        }
+        return true;
+    }
+    
+    /**
+     * Stops the workers. Queued jobs that did not start are dropped: their files stay in the source folder,
+     * are no longer reported as pending and get their claims released, so the next cycle (of this process
+     * or of the uploader replacing this one) uploads them again.
+     */
+    void shutdown() {
+        for (Thread t : workers) {
+            t.interrupt();
+        }
+        final List<Job> dropped = new ArrayList<>();
+        queue.drainTo(dropped);
+        dropped.forEach(this::finish);
+        if (!dropped.isEmpty()) {
+            final String warn = "Post actions stopped; " + dropped.size() + " uploaded file(s) stay in place for the next cycle";
+            logger.warning(warn);
+        }
+    }
+    
+    private void work() {
+        while (!Thread.currentThread().isInterrupted()) {
+            final List<Job> batch = new ArrayList<>();
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (isDailyZip(batch.get(0).folder)) {
+                // Add everything else that is already waiting, so a bundle is rewritten once per batch
+                queue.drainTo(batch, MAX_BUNDLE_BATCH - 1);
+            }
+            perform(batch);
+        }
+    }
+    
+    private void perform(List<Job> batch) {
+        final Map<Path, List<Job>> bundles = new LinkedHashMap<>();
+        for (Job job : batch) {
+            try {
+                if (isDailyZip(job.folder) && !dryRun) {
+                    bundles.computeIfAbsent(bundlePrefix(job.folder), k -> new ArrayList<>()).add(job);
+                    continue;
+                }
+                final long start = System.nanoTime();
+                postAction(job.folder, job.file);
+                logIfSlow(job.file, System.nanoTime() - start);
+                finish(job);
+            } catch (Exception e) {
+                final String err = "Post action failed for " + job.file + ": " + e.getMessage();
+                logger.log(Level.SEVERE, err, e);
+                finish(job);
+            }
+        }
+        for (Map.Entry<Path, List<Job>> bundle : bundles.entrySet()) {
+            appendToBundle(bundle.getKey(), bundle.getValue());
+        }
+    }
+    
+    private void logIfSlow(Path file, long nanos) {
+        if (nanos < slowNanos) return;
+        final String warn = "Slow post action for " + file + ": " + TimeUnit.NANOSECONDS.toMillis(nanos) + " ms";
+        logger.warning(warn);
+    }
+    
+    private void finish(Job job) {
+        if (job.claimer != null && Files.exists(job.file)) {
+            job.claimer.release(job.file);
+        }
+        pending.remove(job.file);
+        sharedPending.remove(job.file);
+    }
+    
+    /* ----------------------- Actions ----------------------- */
+    
+    private void postAction(Config.FolderConfig folder, Path localFile) throws IOException {
+        String action = folder.getPostAction();
+        if (action == null) action = "none";
+        
+        switch (action.toLowerCase()) {
+            case "archive": {
+                final String archiveDirStr = folder.getArchiveDir();
+                if (archiveDirStr == null || archiveDirStr.isEmpty()) {
+                    final String warn = "archiveDir not set; skipping archive for " + localFile;
+                    logger.warning(warn);
+                    return;
+                }
+                if (isDailyZip(folder)) {
+                    // Only reached in dry-run; real bundle writes are batched
+                    final String msg = "[DRY-RUN] Would add " + localFile + " to a bundle " + bundlePrefix(folder) + "_*.zip";
+                    logger.info(msg::toString);
+                    return;
+                }
+                final Path archiveDir = archiveDirFor(folder);
+                Path target = archiveDir.resolve(localFile.getFileName());
+                
+                if (dryRun) {
+                    final String msg = "[DRY-RUN] Would move " + localFile + " -> " + target;
+                    logger.info(msg::toString);
+                    return;
+                }
+                
+                Files.createDirectories(archiveDir);
+                if (Files.exists(target)) {
+                    target = archiveDir.resolve(uniqueName(localFile.getFileName().toString()));
+                }
+                moveToArchive(localFile, target);
+                
+                final String fine = "Archived " + localFile + " -> " + target;
+                logger.fine(fine);
+                break;
+            }
+            case "delete": {
+                if (dryRun) {
+                    final String msg = "[DRY-RUN] Would delete " + localFile;
+                    logger.info(msg::toString);
+                    return;
+                }
+                Files.deleteIfExists(localFile);
+                final String fine = "Deleted " + localFile;
+                logger.fine(fine);
+                break;
+            }
+            case "none":
+            default: {
+                final String fine = "Post action 'none' for " + localFile;
+                logger.fine(fine);
+            }
+        }
+    }
+    
+    /** Atomic rename where possible, otherwise a durable copy followed by deleting the source. */
+    static void moveToArchive(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+            return;
+        } catch (AtomicMoveNotSupportedException e) {
+            // Different volume: fall through to copy + delete
+        }
+        
+        final Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                     StandardOpenOption.WRITE)) {
+            final long size = in.size();
+            long pos = 0;
+            while (pos < size) {
+                pos += in.transferTo(pos, size - pos, out);
+            }
+            out.force(true);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+        Files.setLastModifiedTime(target, Files.getLastModifiedTime(source));
+        Files.delete(source);
+    }
+    
+    /**
+     * Streams all files of the batch into a new bundle, fsyncs it, renames it into place and then deletes
+     * the sources. If the bundle cannot be written, the files stay in place.
+     */
+    private void appendToBundle(Path prefix, List<Job> jobs) {
+        final long start = System.nanoTime();
+        synchronized (bundleLock) {
+            final List<Job> added = new ArrayList<>();
+            Path tmp = null;
+            try {
+                Files.createDirectories(prefix.toAbsolutePath().getParent());
+                final Path bundle = newBundlePath(prefix);
+                tmp = bundle.resolveSibling(bundle.getFileName() + ".tmp");
+                try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                        StandardOpenOption.WRITE);
+                     // Buffered: the deflater writes in small pieces, each of which would be a separate write call
+                     ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(Channels.newOutputStream(ch), BUNDLE_BUFFER))) {
+                    final Set<String> names = new HashSet<>();
+                    for (Job job : jobs) {
+                        String entry = job.file.getFileName().toString();
+                        if (!names.add(entry)) {
+                            entry = uniqueName(entry);
+                            names.add(entry);
+                        }
+                        try (InputStream in = Files.newInputStream(job.file)) {
+                            zip.putNextEntry(new ZipEntry(entry));
+                            in.transferTo(zip);
+                            zip.closeEntry();
+                            added.add(job);
+                        } catch (NoSuchFileException e) {
+                            logger.warning("Could not add " + job.file + " to " + bundle + ": " + e.getMessage());
+                        }
+                    }
+                    zip.finish();
+                    zip.flush();
+                    ch.force(true);
+                }
+                if (added.isEmpty()) {
+                    Files.deleteIfExists(tmp);
+                    return;
+                }
+                Files.move(tmp, bundle, StandardCopyOption.ATOMIC_MOVE);
+                for (Job job : added) {
+                    Files.deleteIfExists(job.file);
+                }
+                final long nanos = System.nanoTime() - start;
+                final String fine = "Archived " + added.size() + " file(s) into " + bundle + " in "
+                        + TimeUnit.NANOSECONDS.toMillis(nanos) + " ms";
+                logger.fine(fine);
+                if (nanos >= slowNanos) {
+                    logger.warning("Slow archive bundle write " + bundle + ": " + TimeUnit.NANOSECONDS.toMillis(nanos) + " ms");
+                }
+            } catch (IOException e) {
+                final String err = "Failed to write archive bundle for " + prefix + ": " + e.getMessage();
+                logger.log(Level.SEVERE, err, e);
+                if (tmp != null) {
+                    try { Files.deleteIfExists(tmp); } catch (IOException ignored) {}
+                }
+            } finally {
+                jobs.forEach(this::finish);
+            }
+        }
+    }
+    
+    /** A bundle name of the current time that does not exist yet; bundle writes are serialized by bundleLock. */
+    private static Path newBundlePath(Path prefix) {
+        final String time = LocalTime.now().format(BUNDLE_TIME);
+        Path bundle = prefix.resolveSibling(prefix.getFileName() + "_" + time + ".zip");
+        for (int i = 1; Files.exists(bundle); i++) {
+            bundle = prefix.resolveSibling(prefix.getFileName() + "_" + time + "-" + i + ".zip");
+        }
+        return bundle;
+    }
+    
+    /* ----------------------- Layout ----------------------- */
+    
+    private static boolean isArchive(Config.FolderConfig folder) {
+        return "archive".equalsIgnoreCase(folder.getPostAction());
+    }
+    
+    private static boolean isDailyZip(Config.FolderConfig folder) {
+        return isArchive(folder) && "daily-zip".equalsIgnoreCase(folder.getArchiveLayout());
+    }
+    
+    /** archiveDir, or archiveDir/yyyy-MM-dd for layout "daily". */
+    private static Path archiveDirFor(Config.FolderConfig folder) {
+        final Path base = Paths.get(folder.getArchiveDir());
+        if ("daily".equalsIgnoreCase(folder.getArchiveLayout())) {
+            return base.resolve(LocalDate.now().toString());
+        }
+        return base;
+    }
+    
+    /** archiveDir/yyyy-MM-dd; each batch adds "_HHmmssSSS.zip". */
+    private static Path bundlePrefix(Config.FolderConfig folder) {
+        return Paths.get(folder.getArchiveDir()).resolve(LocalDate.now().toString());
+    }
+    
+    static String uniqueName(String name) {
+        final int dot = name.lastIndexOf('.');
+        final String base = (dot > 0) ? name.substring(0, dot) : name;
+        final String ext  = (dot > 0) ? name.substring(dot) : "";
+        return base + "_" + Instant.now().toEpochMilli() + ext;
+    }
+}
@@ -0,0 +1,112 @@
+package io.labv.sftptransfer.core;
+
+import io.labv.sftptransfer.config.Config;
+import net.schmizz.sshj.sftp.SFTPClient;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Free space on the server per remote directory, queried with {@code statvfs@openssh.com}.
+ * <p>
+ * A result is reused for capacityCacheSeconds; bytes reserved for uploads in the meantime are subtracted from
+ * it, so large batches are checked again periodically without a round trip per file. If the server does not
+ * implement the extension, every file fits.
+ */
+final class RemoteCapacity {
+    
+    static final int DEFAULT_CACHE_SECONDS = 30;
+    
+    private static final class Entry {
+        final long queriedNanos;
+        long available; // -1 if the query failed
+        
+        Entry(long queriedNanos, long available) {
+            this.queriedNanos = queriedNanos;
+            this.available = available;
+        }
+    }
+    
+    private final boolean pause;
+    private final long reserveBytes;
+    private final long cacheNanos;
+    private final Logger logger;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private volatile boolean unsupported = false;
+    
+    private RemoteCapacity(Config.SftpConfig sftp, Logger logger) {
+        this.pause = "pause".equalsIgnoreCase(sftp.getCapacityCheck());
+        this.reserveBytes = (sftp.getCapacityReserveMb() != null) ? sftp.getCapacityReserveMb() * 1024L * 1024 : 0;
+        this.cacheNanos = TimeUnit.SECONDS.toNanos(
+                (sftp.getCapacityCacheSeconds() != null) ? sftp.getCapacityCacheSeconds() : DEFAULT_CACHE_SECONDS);
+        this.logger = logger;
+    }
+    
+    /** Returns null unless sftp.capacityCheck is "pause" or "fit". */
+    static RemoteCapacity of(Config.SftpConfig sftp, Logger logger) {
+        final String mode = sftp.getCapacityCheck();
+        if (mode == null || "off".equalsIgnoreCase(mode)) return null;
+        return new RemoteCapacity(sftp, logger);
+    }
+    
+    /** True if the cycle stops at the first file that does not fit; false if it continues with the next file. */
+    boolean pausesCycle() {
+        return pause;
+    }
+    
+    /**
+     * Bytes that may still be uploaded into the directory (free space minus the reserve), or -1 if unknown.
+     * Queries the server if there is no recent result.
+     */
+    long available(SFTPClient sftp, String remoteDir, PhaseTimes times) {
+        if (unsupported) return -1;
+        final Entry e = entry(sftp, remoteDir, times);
+        synchronized (e) {
+            return (e.available < 0) ? -1 : Math.max(0, e.available - reserveBytes);
+        }
+    }
+    
+    /** Reserves space for an upload of the given size; false if it does not fit. */
+    boolean tryReserve(SFTPClient sftp, String remoteDir, long bytes, PhaseTimes times) {
+        if (unsupported) return true;
+        final Entry e = entry(sftp, remoteDir, times);
+        synchronized (e) {
+            if (e.available < 0) return true;
+            if (e.available - reserveBytes < bytes) return false;
+            e.available -= bytes;
+            return true;
+        }
+    }
+    
+    /** Drops the cached result, e.g. after a failed write. */
+    void invalidate(String remoteDir) {
+        entries.remove(remoteDir);
+    }
+    
+    private Entry entry(SFTPClient sftp, String remoteDir, PhaseTimes times) {
+        final long now = System.nanoTime();
+        final Entry cached = entries.get(remoteDir);
+        if (cached != null && now - cached.queriedNanos < cacheNanos) return cached;
+        
+        entries.values().removeIf(e -> now - e.queriedNanos >= cacheNanos);
+        long available = -1;
+        try {
+            available = SftpExtensions.availableBytes(sftp, remoteDir);
+        } catch (IOException e) {
+            if (SftpExtensions.isUnsupported(e)) {
+                unsupported = true;
+                logger.info("Server does not support statvfs@openssh.com; the capacity check is disabled.");
+            } else {
+                // Cached like a result, so a failing query is not repeated for every file
+                logger.warning("Free-space query for " + remoteDir + " failed: " + e.getMessage());
+            }
+        }
+        times.since(PhaseTimes.Phase.STAT, now);
+        final Entry fresh = new Entry(now, available);
+        entries.put(remoteDir, fresh);
+        return fresh;
+    }
+}
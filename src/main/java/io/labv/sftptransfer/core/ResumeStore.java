@@ -0,0 +1,95 @@
+package io.labv.sftptransfer.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * Persists the confirmed offsets of aborted uploads so the next run can continue the remote
+ * {@code .part} file instead of starting over. Entries are keyed by absolute local path and are only
+ * honored while the local file's size and modification time are unchanged.
+ */
+final class ResumeStore {
+    
+    static final String FILE_NAME = "resume.properties";
+    
+    private final Path file;
+    private final Logger logger;
+    private final Properties entries = new Properties();
+    
+    ResumeStore(Path stateDir, Logger logger) {
+        this.file = stateDir.resolve(FILE_NAME);
+        this.logger = logger;
+        load();
+    }
+    
+    /** A checkpoint for one local file. */
+    static final class Checkpoint {
+        final long size;
+        final long lastModifiedMillis;
+        final long offset;
+        final String remotePath;
+        
+        Checkpoint(long size, long lastModifiedMillis, long offset, String remotePath) {
+            this.size = size;
+            this.lastModifiedMillis = lastModifiedMillis;
+            this.offset = offset;
+            this.remotePath = remotePath;
+        }
+    }
+    
+    synchronized Checkpoint get(Path localFile) {
+        final String value = entries.getProperty(key(localFile));
+        if (value == null) return null;
+        // size:mtime:offset:remotePath (the remote path may itself contain ':')
+        final String[] parts = value.split(":", 4);
+        if (parts.length != 4) return null;
+        try {
+            return new Checkpoint(Long.parseLong(parts[0]), Long.parseLong(parts[1]), Long.parseLong(parts[2]), parts[3]);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+    
+    synchronized void put(Path localFile, Checkpoint cp) {
+        entries.setProperty(key(localFile), cp.size + ":" + cp.lastModifiedMillis + ":" + cp.offset + ":" + cp.remotePath);
+        save();
+    }
+    
+    synchronized void remove(Path localFile) {
+        if (entries.remove(key(localFile)) != null) {
+            save();
+        }
+    }
+    
+    private static String key(Path localFile) {
+        return localFile.toAbsolutePath().normalize().toString();
+    }
+    
+    private void load() {
+        if (!Files.isRegularFile(file)) return;
+        try (InputStream in = Files.newInputStream(file)) {
+            entries.load(in);
+        } catch (IOException e) {
+            logger.warning("Could not read resume checkpoints from " + file + ": " + e.getMessage());
+        }
+    }
+    
+    private void save() {
+        try {
+            Files.createDirectories(file.getParent());
+            final Path tmp = file.resolveSibling(FILE_NAME + ".tmp");
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                entries.store(out, "labv-sftp-transfer resume checkpoints");
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warning("Could not write resume checkpoints to " + file + ": " + e.getMessage());
+        }
+    }
+}
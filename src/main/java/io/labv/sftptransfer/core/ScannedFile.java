@@ -0,0 +1,42 @@
+package io.labv.sftptransfer.core;
+
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * A matching file found during a folder scan, together with the attributes read while scanning.
+ * Ordering and budgeting decisions use these attributes instead of hitting the filesystem again.
+ */
+final class ScannedFile {
+    
+    private final Path path;
+    private final long size;
+    private final long lastModifiedMillis;
+    
+    ScannedFile(Path path, BasicFileAttributes attrs) {
+        this(path, attrs.size(), attrs.lastModifiedTime().toMillis());
+    }
+    
+    ScannedFile(Path path, long size, long lastModifiedMillis) {
+        this.path = path;
+        this.size = size;
+        this.lastModifiedMillis = lastModifiedMillis;
+    }
+    
+    Path path() {
+        return path;
+    }
+    
+    long size() {
+        return size;
+    }
+    
+    long lastModifiedMillis() {
+        return lastModifiedMillis;
+    }
+    
+    @Override
+    public String toString() {
+        return path.toString();
+    }
+}
@@ -0,0 +1,100 @@
+package io.labv.sftptransfer.core;
+
+import net.schmizz.sshj.sftp.FileAttributes;
+import net.schmizz.sshj.sftp.OpenMode;
+import net.schmizz.sshj.sftp.PacketType;
+import net.schmizz.sshj.sftp.RemoteFile;
+import net.schmizz.sshj.sftp.Request;
+import net.schmizz.sshj.sftp.Response;
+import net.schmizz.sshj.sftp.SFTPClient;
+import net.schmizz.sshj.sftp.SFTPEngine;
+import net.schmizz.sshj.sftp.SFTPException;
+
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SFTP protocol extensions that sshj does not wrap, sent as raw requests.
+ * Servers without the extension answer with {@code SSH_FX_OP_UNSUPPORTED}; see {@link #isUnsupported}.
+ */
+final class SftpExtensions {
+    
+    private SftpExtensions() {
+    }
+    
+    /**
+     * Copies a remote file on the server ({@code copy-data}, draft-ietf-secsh-filexfer-extensions),
+     * so the content does not travel over the network again.
+     */
+    static void copyData(SFTPClient sftp, String source, String target) throws IOException {
+        final SFTPEngine engine = sftp.getSFTPEngine();
+        try (RemoteFile in = open(engine, source, EnumSet.of(OpenMode.READ));
+             RemoteFile out = open(engine, target, EnumSet.of(OpenMode.WRITE, OpenMode.CREAT, OpenMode.TRUNC))) {
+            final Request req = engine.newExtendedRequest("copy-data")
+                    .putString(handleOf(in))
+                    .putUInt64(0)   // read-from-offset
+                    .putUInt64(0)   // read-data-length: 0 = until EOF
+                    .putString(handleOf(out))
+                    .putUInt64(0);  // write-to-offset
+            retrieve(engine, req).ensureStatusPacketIsOK();
+        }
+    }
+    
+    /**
+     * Bytes available to unprivileged users on the file system that holds the path
+     * ({@code statvfs@openssh.com}: f_bavail * f_frsize).
+     */
+    static long availableBytes(SFTPClient sftp, String path) throws IOException {
+        final SFTPEngine engine = sftp.getSFTPEngine();
+        final Response res = retrieve(engine, engine.newExtendedRequest("statvfs@openssh.com").putString(path));
+        if (res.getType() == PacketType.STATUS) {
+            // Only errors are answered with a status
+            res.ensureStatusPacketIsOK();
+        }
+        res.ensurePacketTypeIs(PacketType.EXTENDED_REPLY);
+        res.readUInt64();                       // f_bsize
+        final long fragmentSize = res.readUInt64();
+        res.readUInt64();                       // f_blocks
+        res.readUInt64();                       // f_bfree
+        final long available = res.readUInt64();
+        return available * fragmentSize;
+    }
+    
+    /** True if the server rejected a request because it does not implement it. */
+    static boolean isUnsupported(IOException e) {
+        return e instanceof SFTPException
+                && ((SFTPException) e).getStatusCode() == Response.StatusCode.OP_UNSUPPORTED;
+    }
+    
+    static Response retrieve(SFTPEngine engine, Request req) throws IOException {
+        return engine.request(req).retrieve(engine.getTimeoutMs(), TimeUnit.MILLISECONDS);
+    }
+    
+    /** Opens a handle with a raw OPEN request, since sshj's {@link RemoteFile} does not expose it. */
+    private static HandleFile open(SFTPEngine engine, String path, Set<OpenMode> modes) throws IOException {
+        final Request req = engine.newRequest(PacketType.OPEN)
+                .putString(path)
+                .putUInt32(OpenMode.toMask(modes))
+                .putFileAttributes(FileAttributes.EMPTY);
+        final Response res = retrieve(engine, req);
+        res.ensurePacketTypeIs(PacketType.HANDLE);
+        return new HandleFile(engine, path, res.readBytes());
+    }
+    
+    private static byte[] handleOf(RemoteFile file) {
+        return ((HandleFile) file).handle;
+    }
+    
+    /** A {@link RemoteFile} that remembers its handle; closing it sends CLOSE as usual. */
+    private static final class HandleFile extends RemoteFile {
+        
+        private final byte[] handle;
+        
+        HandleFile(SFTPEngine engine, String path, byte[] handle) {
+            super(engine, path, handle);
+            this.handle = handle;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package io.labv.sftptransfer.core;
+
+import net.schmizz.sshj.SSHClient;
+import net.schmizz.sshj.sftp.SFTPClient;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Keeps authenticated SFTP sessions open between folders and cycles, so that the SSH handshake and
+ * authentication are paid once per session instead of once per folder.
+ * <p>
+ * A session is used by one thread at a time. The number of open sessions can be capped; {@link #borrow}
+ * then waits for a free one. Idle sessions are reused newest-first and closed after
+ * {@value #IDLE_TIMEOUT_SECONDS} seconds, before the server is likely to drop them.
+ */
+final class SftpSessionPool {
+    
+    static final int IDLE_TIMEOUT_SECONDS = 120;
+    
+    /** Opens and authenticates a new SSH connection, recording connect and auth time. */
+    interface Connector {
+        SSHClient connect(PhaseTimes times) throws IOException;
+    }
+    
+    /** A pooled session with its own pipeline settings. */
+    static final class Session {
+        
+        private final SSHClient ssh;
+        private final SFTPClient sftp;
+        private final PipelineTuner tuner;
+        private long idleSince;
+        
+        private Session(SSHClient ssh, SFTPClient sftp, PipelineTuner tuner) {
+            this.ssh = ssh;
+            this.sftp = sftp;
+            this.tuner = tuner;
+        }
+        
+        SFTPClient sftp() {
+            return sftp;
+        }
+        
+        PipelineTuner tuner() {
+            return tuner;
+        }
+        
+        /** False once the connection was closed, e.g. by the stall watchdog. */
+        boolean isOpen() {
+            return ssh.isConnected() && ssh.isAuthenticated();
+        }
+    }
+    
+    private final Connector connector;
+    private final Consumer<SSHClient> disconnector;
+    private final Supplier<PipelineTuner> tunerFactory;
+    private final Semaphore permits;   // null: no limit
+    private final Deque<Session> idle = new ArrayDeque<>();   // guarded by this
+    private boolean closed;   // guarded by this
+    
+    SftpSessionPool(Integer maxSessions, Connector connector, Consumer<SSHClient> disconnector,
+                    Supplier<PipelineTuner> tunerFactory) {
+        this.connector = connector;
+        this.disconnector = disconnector;
+        this.tunerFactory = tunerFactory;
+        this.permits = (maxSessions != null) ? new Semaphore(maxSessions, true) : null;
+    }
+    
+    /** Returns an idle session or opens a new one; waits while the session limit is reached. */
+    Session borrow(PhaseTimes times) throws IOException, InterruptedException {
+        if (permits != null) {
+            permits.acquire();
+        }
+        try {
+            Session s;
+            while ((s = takeIdle()) != null) {
+                if (s.isOpen()) {
+                    return s;
+                }
+                discard(s);
+            }
+            final SSHClient ssh = connector.connect(times);
+            try {
+                return new Session(ssh, ssh.newSFTPClient(), tunerFactory.get());
+            } catch (IOException e) {
+                disconnector.accept(ssh);
+                throw e;
+            }
+        } catch (IOException | RuntimeException e) {
+            if (permits != null) permits.release();
+            throw e;
+        }
+    }
+    
+    /** Returns a healthy session for reuse. */
+    void release(Session s) {
+        final boolean keep;
+        synchronized (this) {
+            keep = !closed;
+            if (keep) {
+                s.idleSince = System.nanoTime();
+                idle.push(s);
+            }
+        }
+        if (!keep) discard(s);
+        if (permits != null) permits.release();
+    }
+    
+    /** Breaks the connection of a session that is in use; the owner still has to {@link #invalidate} it. */
+    void abort(Session s) {
+        disconnector.accept(s.ssh);
+    }
+    
+    /** Closes a session that failed or must not be reused. */
+    void invalidate(Session s) {
+        discard(s);
+        if (permits != null) permits.release();
+    }
+    
+    /** Closes all idle sessions; sessions released later are closed as well. */
+    void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        Session s;
+        while ((s = takeIdle()) != null) {
+            discard(s);
+        }
+    }
+    
+    /** Newest idle session, closing those idle for too long on the way. */
+    private Session takeIdle() {
+        final long now = System.nanoTime();
+        while (true) {
+            final Session s;
+            synchronized (this) {
+                s = idle.poll();
+            }
+            if (s == null) return null;
+            if (now - s.idleSince < TimeUnit.SECONDS.toNanos(IDLE_TIMEOUT_SECONDS)) return s;
+            discard(s);
+        }
+    }
+    
+    private void discard(Session s) {
+        try { s.sftp.close(); } catch (IOException ignored) {}
+        disconnector.accept(s.ssh);
+    }
+}
@@ -1,129 +1,532 @@
 package io.labv.sftptransfer.core;
 
 import io.labv.sftptransfer.config.Config;
+import io.labv.sftptransfer.util.HostNames;
+import io.labv.sftptransfer.util.RemotePathTemplate;
 import net.schmizz.sshj.SSHClient;
+import net.schmizz.sshj.sftp.FileAttributes;
+import net.schmizz.sshj.sftp.OpenMode;
+import net.schmizz.sshj.sftp.RemoteFile;
+import net.schmizz.sshj.sftp.RemoteResourceInfo;
 import net.schmizz.sshj.sftp.SFTPClient;
 import net.schmizz.sshj.transport.verification.HostKeyVerifier;
 import net.schmizz.sshj.transport.verification.OpenSSHKnownHosts;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.security.PublicKey;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
+import java.util.logging.LogRecord;
 import java.util.logging.Logger;
 
 public class SftpUploader {
     
+    static final int DEFAULT_STALL_SECONDS = 60;
+    static final int DEFAULT_ORPHAN_PART_SECONDS = 86400;
+    
     private final Config config;
     private final Logger logger;
     private final boolean dryRun;
+    private final UploadArbiter arbiter = new UploadArbiter();
+    private final MemoryBudget budget;
+    private final FolderScanner scanner;
+    private final PostActionStage postActions;
+    private final ResumeStore resumeStore;
+    private final FailureTracker failures;
+    private final SftpSessionPool pool;
+    private final FolderDownloader downloader;
+    
+    /* Shared folders: one claimer per folder, whose lease is renewed from a timer */
+    private final Map<Path, FileClaimer> claimers = new ConcurrentHashMap<>();
+    private ScheduledExecutorService leaseTimer; // guarded by claimers
+    
+    /* Remote directories: compiled templates, and directories known to exist (saves a stat per file) */
+    private final Map<String, RemotePathTemplate> templates = new ConcurrentHashMap<>();
+    private final Set<String> knownRemoteDirs = ConcurrentHashMap.newKeySet();
+    private volatile String hostName;
+    
+    /* Deduplication: content keys of local files and where that content was delivered */
+    private final FileHashCache hashes;
+    private final DeliveredIndex delivered;
+    private volatile boolean copyDataUnsupported = false;
+    
+    /** Free space on the server; null unless sftp.capacityCheck is set. */
+    private final RemoteCapacity capacity;
+    
+    /** Aborts stalled uploads; null unless sftp.stallMinBytesPerSecond is set. */
+    private final StallWatchdog watchdog;
+    
+    /* Drain state: open sessions, streaming uploads and running cycles */
+    private final Set<SSHClient> sessions = ConcurrentHashMap.newKeySet();
+    private final Map<Path, InFlightTransfer> inFlight = new ConcurrentHashMap<>();
+    private volatile boolean draining = false;
+    private int activeCycles = 0; // guarded by this
     
     public SftpUploader(Config config, Logger logger, boolean dryRun) {
+        this(config, logger, dryRun, UploaderState.open(config, logger));
+    }
+    
+    /** Uses the given state, e.g. the one of the uploader this one replaces after a config reload. */
+    public SftpUploader(Config config, Logger logger, boolean dryRun, UploaderState state) {
         this.config = Objects.requireNonNull(config, "config");
         this.logger = Objects.requireNonNull(logger, "logger");
         this.dryRun = dryRun;
+        this.budget = MemoryBudget.of(config);
+        this.scanner = new FolderScanner(budget.maxScanEntries());
+        this.hashes = new FileHashCache(budget.maxIndexEntries(FileHashCache.DEFAULT_MAX_ENTRIES));
+        this.resumeStore = state.resumeStore;
+        this.failures = state.failures;
+        this.delivered = state.delivered;
+        this.postActions = new PostActionStage(
+                Math.max(1, config.getPostActionThreads()),
+                (config.getPostActionQueueSize() > 0) ? config.getPostActionQueueSize() : PostActionStage.DEFAULT_QUEUE_SIZE,
+                config.getSlowFileThresholdSeconds(), state.pendingPostActions, dryRun, logger);
+        this.pool = new SftpSessionPool(maxSessions(), this::connect, this::closeSession,
+                () -> new PipelineTuner(config.getSftp()));
+        this.downloader = new FolderDownloader(pool, resumeStore, budget, inFlight, () -> draining, dryRun, logger);
+        if (budget.isLimited()) {
+            final String msg = budget.describe(config.getSftp().getMaxSessions());
+            logger.info(msg::toString);
+            if (config.getMemoryBudgetMb() * 1024L * 1024 > Runtime.getRuntime().maxMemory()) {
+                logger.warning("memoryBudgetMb exceeds the maximum heap size (-Xmx); the budget cannot prevent OutOfMemoryErrors.");
+            }
+        }
+        this.capacity = RemoteCapacity.of(config.getSftp(), logger);
+        final Long floor = config.getSftp().getStallMinBytesPerSecond();
+        this.watchdog = (floor == null) ? null : new StallWatchdog(inFlight.values(), floor,
+                (config.getSftp().getStallSeconds() != null) ? config.getSftp().getStallSeconds() : DEFAULT_STALL_SECONDS,
+                this::abortStalled, logger);
     }
     
-    /** Performs exactly one scan-upload cycle for the given folder. */
-    public void processFolderOnce(Config.FolderConfig folder) {
+    /**
+     * Performs exactly one scan-upload cycle for the given folder, or one download cycle for a folder
+     * with direction "download".
+     *
+     * @return the number of files uploaded, downloaded or found already delivered in this cycle
+     */
+    public int processFolderOnce(Config.FolderConfig folder) {
+        if (!enterCycle()) {
+            logger.fine(() -> "Draining; skipping cycle for " + folder.getPath());
+            return 0;
+        }
+        try {
+            if ("download".equalsIgnoreCase(folder.getDirection())) {
+                return downloader.downloadOnce(folder, normalizeRemoteDir(
+                        (folder.getRemoteDir() != null) ? folder.getRemoteDir() : config.getSftp().getRemoteDir()));
+            }
+            return scanAndUpload(folder);
+        } finally {
+            exitCycle();
+        }
+    }
+    
+    /** Maximum number of open sessions (sftp.maxSessions and the memory budget), or null if unlimited. */
+    public Integer maxSessions() {
+        return budget.maxSessions(config.getSftp().getMaxSessions());
+    }
+    
+    /* ----------------------- Drain ----------------------- */
+    
+    /** Stops new cycles and new files; files already streaming continue. */
+    public void beginDrain() {
+        draining = true;
+    }
+    
+    /** Waits until no cycle is running and all queued post-actions are done. Returns false on timeout. */
+    public boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (this) {
+            while (activeCycles > 0) {
+                final long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) return false;
+                wait(remaining);
+            }
+        }
+        return postActions.awaitEmpty(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+    
+    /**
+     * Checkpoints all uploads that are still streaming and closes their sessions.
+     * The next run resumes them from the remote {@code .part} file.
+     */
+    public void abortInFlight() {
+        for (InFlightTransfer t : inFlight.values()) {
+            final long offset = t.confirmedOffset();
+            resumeStore.put(t.localFile(),
+                    new ResumeStore.Checkpoint(t.size(), t.lastModifiedMillis(), offset, t.remotePath()));
+            final String warn = "Aborted transfer of " + t.localFile() + " at " + offset + "/" + t.size()
+                    + " bytes; it will resume on the next run.";
+            logger.warning(warn);
+        }
+        pool.close();
+        for (SSHClient ssh : sessions) {
+            closeSession(ssh);
+        }
+        postActions.shutdown();
+        downloader.shutdown();
+        stopLeaseRenewal();
+        if (watchdog != null) watchdog.stop();
+    }
+    
+    /** Closes the pooled sessions and stops the post-action workers; call after {@link #awaitIdle}. */
+    public void close() {
+        pool.close();
+        postActions.shutdown();
+        downloader.shutdown();
+        stopLeaseRenewal();
+        if (watchdog != null) watchdog.stop();
+    }
+    
+    /** Checkpoints a stalled upload and breaks its connection; the next attempt resumes from the part file. */
+    private void abortStalled(InFlightTransfer t) {
+        resumeStore.put(t.localFile(),
+                new ResumeStore.Checkpoint(t.size(), t.lastModifiedMillis(), t.confirmedOffset(), t.remotePath()));
+        t.abort();
+    }
+    
+    private synchronized boolean enterCycle() {
+        if (draining) return false;
+        activeCycles++;
+        return true;
+    }
+    
+    private synchronized void exitCycle() {
+        activeCycles--;
+        notifyAll();
+    }
+    
+    /* ----------------------- Cycle ----------------------- */
+    
+    private int scanAndUpload(Config.FolderConfig folder) {
         final Path localDir = Paths.get(folder.getPath());
         if (!Files.isDirectory(localDir)) {
             logger.warning(() -> "Not a directory: " + localDir);
-            return;
+            return 0;
         }
         
-        final List<PathMatcher> matchers = buildMatchers(localDir.getFileSystem(), folder.getPattern());
-        final List<Path> files = listMatchingFiles(localDir, matchers);
+        final FileClaimer claimer = claimerFor(folder, localDir);
+        if (claimer != null) {
+            try {
+                claimer.renewLease();
+            } catch (IOException e) {
+                final String err = "Cannot create claim directory in " + localDir + ": " + e.getMessage();
+                logger.log(Level.SEVERE, err, e);
+                return 0;
+            }
+            claimer.releaseStaleClaims();
+        }
+        
+        final List<ScannedFile> files = scanner.scan(localDir, folder);
+        
+        final Comparator<ScannedFile> order = FileOrdering.forFolder(folder);
+        if (order != null) {
+            files.sort(order);
+        }
+        if (claimer != null) {
+            // Files left over from an earlier run of this node go first
+            files.addAll(0, claimer.recoverOwnClaims());
+        }
+        // Uploaded files whose archive/delete is still queued must not be uploaded again
+        files.removeIf(f -> postActions.isPending(f.path()));
+        // Files that failed maxFailures times and were not quarantined wait until they change
+        int poisoned = 0;
+        long poisonedMillis = 0;
+        if (folder.getMaxFailures() != null) {
+            for (Iterator<ScannedFile> it = files.iterator(); it.hasNext(); ) {
+                final ScannedFile f = it.next();
+                final FailureTracker.Failures fs = failures.current(localDir.resolve(f.path().getFileName()), f.size(),
+                        f.lastModifiedMillis());
+                if (fs != null && fs.count >= folder.getMaxFailures()) {
+                    it.remove();
+                    poisoned++;
+                    poisonedMillis += fs.millisSpent;
+                }
+            }
+        }
         if (files.isEmpty()) {
-            logger.fine(() -> "No matching files in " + localDir);
-            return;
+            final int skippedPoisoned = poisoned;
+            logger.fine(() -> "No matching files in " + localDir
+                    + ((skippedPoisoned > 0) ? " (" + skippedPoisoned + " skipped after repeated failures)" : ""));
+            return 0;
         }
         
         final String foundMsg = "Found " + files.size() + " file(s) in " + localDir;
         logger.info(foundMsg::toString);
         
-        final SSHClient ssh = new SSHClient();
+        final int priority = priorityOf(folder);
+        int remaining = files.size();
+        boolean announced = false;
+        
+        final long cycleStart = System.nanoTime();
+        final PhaseTimes cycleTimes = new PhaseTimes();
+        int uploaded = 0, skipped = 0, failed = 0, deferred = 0;
+        long bytes = 0, deferredBytes = 0;
+        final long pendingBytes = files.stream().mapToLong(ScannedFile::size).sum();
+        boolean capacityChecked = false;
+        
+        // Reconcile: one listing per remote directory and cycle, restricted to the names of this cycle
+        final Map<String, Map<String, FileAttributes>> listings = new HashMap<>();
+        final Set<String> names = new HashSet<>();
+        if (isReconcile(folder)) {
+            files.forEach(f -> names.add(f.path().getFileName().toString()));
+        }
+        
+        SftpSessionPool.Session session = null;
+        boolean reusable = false;
         try {
-            configureHostKeyVerification(ssh, config.getSftp());
-            ssh.connect(config.getSftp().getHost(), config.getSftp().getPort());
-            ssh.authPublickey(
-                    config.getSftp().getUsername(),
-                    ssh.loadKeys(config.getSftp().getPrivateKeyPath())
-            );
-            try (SFTPClient sftp = ssh.newSFTPClient()) {
-                final String remoteRoot = normalizeRemoteDir(config.getSftp().getRemoteDir());
-                ensureRemoteDir(sftp, remoteRoot);
-                
-                for (Path p : files) {
+            session = pool.borrow(cycleTimes);
+            // Announce only with a session: a folder still waiting for one must not hold back folders that can upload
+            arbiter.announce(priority, remaining);
+            announced = true;
+            final String remoteTemplate = (folder.getRemoteDir() != null) ? folder.getRemoteDir() : config.getSftp().getRemoteDir();
+            final Path folderName = localDir.getFileName();
+            
+            for (ScannedFile f : files) {
+                if (draining) {
+                    final String msg = "Draining; leaving " + remaining + " file(s) in " + localDir + " for the next run";
+                    logger.info(msg::toString);
+                    break;
+                }
+                if (!session.isOpen()) {
+                    // The previous upload was aborted (stall); continue on a fresh session. If none can be
+                    // opened, the cycle ends here instead of failing every remaining file.
+                    pool.invalidate(session);
+                    session = null;
+                    arbiter.announce(priority, -remaining);
+                    announced = false;
+                    session = pool.borrow(cycleTimes);
+                    arbiter.announce(priority, remaining);
+                    announced = true;
+                }
+                arbiter.awaitTurn(priority);
+                Path p = f.path();
+                String remoteDir = null;
+                boolean handedOff = false;
+                final PhaseTimes fileTimes = new PhaseTimes();
+                final long fileStart = System.nanoTime();
+                try {
+                    if (claimer != null && !claimer.isClaimed(p)) {
+                        p = claimer.claim(p);
+                        if (p == null) continue; // another node was faster
+                    }
                     if (!Files.isRegularFile(p)) continue;
-                    try {
-                        uploadOne(sftp, remoteRoot, p);
-                        postAction(folder, p);
-                    } catch (Exception ex) {
-                        final String err = "Failed to process " + p + ": " + ex.getMessage();
+                    final SFTPClient sftp = session.sftp();
+                    remoteDir = remoteDirFor(remoteTemplate, (folderName != null) ? folderName.toString() : "",
+                            p.getFileName().toString(), f.lastModifiedMillis());
+                    ensureRemoteDir(sftp, remoteDir, session.tuner(), fileTimes);
+                    final String contentKey = (isDedup(folder) || "checksum".equalsIgnoreCase(folder.getReconcile()))
+                            ? contentKeyOf(f, p, fileTimes) : null;
+                    if (isReconcile(folder) && alreadyOnServer(folder, sftp, listings, names, remoteDir, p, f, contentKey, fileTimes)) {
+                        skipped++;
+                    } else if (isDedup(folder) && deduplicate(folder, sftp, remoteDir, p, f.size(), contentKey)) {
+                        skipped++;
+                    } else if (capacity != null && !fitsOnServer(sftp, remoteDir, f.size(), capacityChecked ? -1 : pendingBytes,
+                            localDir, fileTimes)) {
+                        capacityChecked = true;
+                        deferred++;
+                        deferredBytes += f.size();
+                        if (capacity.pausesCycle()) break;
+                        continue;
+                    } else {
+                        capacityChecked = true;
+                        bytes += uploadOne(folder, session, remoteDir, p, fileTimes);
+                        uploaded++;
+                        if (contentKey != null && !dryRun) {
+                            delivered.record(remoteDir, contentKey, joinRemote(remoteDir, p.getFileName().toString()));
+                        }
+                    }
+                    postActions.submit(folder, p, claimer);
+                    handedOff = true;
+                    if (folder.getMaxFailures() != null) failures.remove(localDir.resolve(p.getFileName()));
+                } catch (InterruptedException ie) {
+                    throw ie;
+                } catch (Exception ex) {
+                    failed++;
+                    final String err = "Failed to process " + p + ": " + ex.getMessage();
+                    // Only failures of the file itself count; a broken connection is not the file's fault
+                    final FailureTracker.Failures fs = (folder.getMaxFailures() != null && !dryRun && p != null
+                            && session != null && session.isOpen())
+                            ? failures.recordFailure(localDir.resolve(p.getFileName()), f.size(), f.lastModifiedMillis(),
+                                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - fileStart), ex.getMessage())
+                            : null;
+                    if (fs != null && fs.count > 1) {
+                        // The stack trace was logged with the first failure
+                        logger.severe(err + " (failure " + fs.count + " of " + folder.getMaxFailures() + ")");
+                    } else {
                         logger.log(Level.SEVERE, err, ex);
                     }
+                    if (fs != null && fs.count >= folder.getMaxFailures()) {
+                        quarantine(folder, localDir, p, fs);
+                    }
+                    if (remoteDir != null) {
+                        // The directory may have been removed on the server; check it again next time
+                        knownRemoteDirs.remove(remoteDir);
+                        if (capacity != null) capacity.invalidate(remoteDir);
+                    }
+                } finally {
+                    cycleTimes.addAll(fileTimes);
+                    logIfSlow(p, System.nanoTime() - fileStart, fileTimes);
+                    if (claimer != null) {
+                        // Failed upload: hand it back to all nodes (the post-action stage releases the rest)
+                        if (!handedOff && p != null && Files.exists(p)) claimer.release(p);
+                    }
+                    if (announced) arbiter.finished(priority);
+                    remaining--;
                 }
             }
+            reusable = true;
         } catch (IOException e) {
-            final String err = "SFTP session failed: " + e.getMessage();
+            final String err = "SFTP session failed: " + e.getMessage() + "; leaving " + remaining + " file(s) in "
+                    + localDir + " for the next cycle";
             logger.log(Level.SEVERE, err, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } finally {
-            try { ssh.disconnect(); } catch (IOException ignored) {}
-            try { ssh.close(); } catch (IOException ignored) {}
+            if (announced) arbiter.announce(priority, -remaining);
+            if (session != null) {
+                if (reusable && !draining && session.isOpen()) pool.release(session);
+                else pool.invalidate(session);
+            }
+        }
+        
+        if (deferred > 0) {
+            final String warn = String.format(Locale.ROOT,
+                    "Not enough free space on the server: %d file(s) (%d bytes) in %s left for a later cycle (capacityCheck: %s)",
+                    deferred, deferredBytes, localDir, capacity.pausesCycle() ? "pause" : "fit");
+            logger.warning(warn);
+        }
+        final String summary = String.format(Locale.ROOT, "Cycle for %s: %d uploaded, %d skipped, %d failed, %d bytes in %d ms (%s)%s",
+                localDir, uploaded, skipped, failed, bytes, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - cycleStart), cycleTimes,
+                budget.isLimited() ? "; memory: " + budget.usage() : "")
+                + ((poisoned > 0) ? "; " + poisoned + " file(s) skipped after repeated failures ("
+                        + TimeUnit.MILLISECONDS.toSeconds(poisonedMillis) + " s spent on them)" : "");
+        logger.info(summary::toString);
+        // Files deferred for capacity, left behind while draining or failed do not count, so the adaptive interval backs off
+        return uploaded + skipped;
+    }
+    
+    /**
+     * Handles a file that failed maxFailures times: moves it to quarantineDir, or leaves it in place to be
+     * skipped until it changes.
+     */
+    private void quarantine(Config.FolderConfig folder, Path localDir, Path file, FailureTracker.Failures fs) {
+        final String cost = fs.count + " failures, " + TimeUnit.MILLISECONDS.toSeconds(fs.millisSpent)
+                + " s spent; last error: " + fs.lastError;
+        if (folder.getQuarantineDir() == null) {
+            logger.warning("Skipping " + file + " from now on (" + cost + "); it is retried once it changes.");
+            return;
+        }
+        try {
+            final Path dir = Paths.get(folder.getQuarantineDir());
+            Files.createDirectories(dir);
+            Path target = dir.resolve(file.getFileName());
+            if (Files.exists(target)) {
+                target = dir.resolve(PostActionStage.uniqueName(file.getFileName().toString()));
+            }
+            PostActionStage.moveToArchive(file, target);
+            failures.remove(localDir.resolve(file.getFileName()));
+            logger.warning("Quarantined " + file + " -> " + target + " (" + cost + ")");
+        } catch (IOException e) {
+            logger.warning("Could not quarantine " + file + ": " + e.getMessage() + "; it is skipped instead.");
         }
     }
     
     /** Legacy single-file upload kept for compatibility. */
     public boolean upload(File file) {
         if (dryRun) {
-            final String remoteFinal = joinRemote(normalizeRemoteDir(config.getSftp().getRemoteDir()), file.getName());
+            final String remoteFinal = joinRemote(
+                    remoteDirFor(config.getSftp().getRemoteDir(), "", file.getName(), file.lastModified()), file.getName());
             final String msg = "[DRY-RUN] Would upload to SFTP: " + remoteFinal;
             logger.info(msg::toString);
             return true;
         }
         
-        final SSHClient ssh = new SSHClient();
+        SftpSessionPool.Session session = null;
+        boolean reusable = false;
         try {
-            configureHostKeyVerification(ssh, config.getSftp());
-            ssh.connect(config.getSftp().getHost(), config.getSftp().getPort());
-            ssh.authPublickey(
-                    config.getSftp().getUsername(),
-                    ssh.loadKeys(config.getSftp().getPrivateKeyPath())
-            );
-            try (SFTPClient sftp = ssh.newSFTPClient()) {
-                final String remoteRoot  = normalizeRemoteDir(config.getSftp().getRemoteDir());
-                ensureRemoteDir(sftp, remoteRoot);
-                final String remoteFinal = joinRemote(remoteRoot, file.getName());
-                final String remoteTemp  = remoteFinal + ".part";
-                
-                final String startMsg = "Uploading " + file.getAbsolutePath() + " -> " + remoteFinal;
-                logger.info(startMsg::toString);
-                
-                sftp.put(file.getAbsolutePath(), remoteTemp);
-                try { sftp.rm(remoteFinal); } catch (IOException ignored) {}
-                sftp.rename(remoteTemp, remoteFinal);
-                
-                final String doneMsg = "Uploaded to SFTP: " + remoteFinal;
-                logger.info(doneMsg::toString);
-            }
+            final PhaseTimes times = new PhaseTimes();
+            session = pool.borrow(times);
+            final SFTPClient sftp = session.sftp();
+            final String remoteRoot  = remoteDirFor(config.getSftp().getRemoteDir(), "", file.getName(), file.lastModified());
+            ensureRemoteDir(sftp, remoteRoot, session.tuner(), times);
+            final String remoteFinal = joinRemote(remoteRoot, file.getName());
+            final String remoteTemp  = remoteFinal + ".part";
+            
+            final String startMsg = "Uploading " + file.getAbsolutePath() + " -> " + remoteFinal;
+            logger.info(startMsg::toString);
+            
+            transfer(session, file.toPath(), remoteTemp);
+            try { sftp.rm(remoteFinal); } catch (IOException ignored) {}
+            sftp.rename(remoteTemp, remoteFinal);
+            
+            final String doneMsg = "Uploaded to SFTP: " + remoteFinal;
+            logger.info(doneMsg::toString);
+            reusable = session.isOpen();
             return true;
         } catch (IOException e) {
             final String warn = "Upload failed for file: " + file.getName() + " – " + e.getMessage();
             logger.warning(warn);
             return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
         } finally {
-            try { ssh.disconnect(); } catch (IOException ignored) {}
-            try { ssh.close(); } catch (IOException ignored) {}
+            if (session != null) {
+                if (reusable) pool.release(session);
+                else pool.invalidate(session);
+            }
         }
     }
     
     /* ----------------------- Helpers ----------------------- */
     
-    private void uploadOne(SFTPClient sftp, String remoteDir, Path localFile) throws IOException {
+    /** Opens a new authenticated connection for the session pool. */
+    private SSHClient connect(PhaseTimes times) throws IOException {
+        final SSHClient ssh = new SSHClient();
+        try {
+            openSession(ssh, times);
+            return ssh;
+        } catch (IOException e) {
+            closeSession(ssh);
+            throw e;
+        }
+    }
+    
+    /** Connects and authenticates the given client, applying the configured SSH window size. */
+    private void openSession(SSHClient ssh, PhaseTimes times) throws IOException {
+        final Config.SftpConfig sftp = config.getSftp();
+        configureHostKeyVerification(ssh, sftp);
+        if (sftp.getWindowSize() != null) {
+            ssh.getConnection().setWindowSize(sftp.getWindowSize());
+        }
+        sessions.add(ssh);
+        long t = System.nanoTime();
+        ssh.connect(sftp.getHost(), sftp.getPort());
+        t = times.since(PhaseTimes.Phase.CONNECT, t);
+        ssh.authPublickey(sftp.getUsername(), ssh.loadKeys(sftp.getPrivateKeyPath()));
+        times.since(PhaseTimes.Phase.AUTH, t);
+    }
+    
+    private void closeSession(SSHClient ssh) {
+        sessions.remove(ssh);
+        try { ssh.disconnect(); } catch (IOException ignored) {}
+        try { ssh.close(); } catch (IOException ignored) {}
+    }
+    
+    /** Uploads one file via a {@code .part} file and returns the number of bytes sent. */
+    private long uploadOne(Config.FolderConfig folder, SftpSessionPool.Session session, String remoteDir, Path localFile,
+                           PhaseTimes times) throws IOException {
         final String filename    = localFile.getFileName().toString();
         final String remoteFinal = joinRemote(remoteDir, filename);
         final String remoteTemp  = remoteFinal + ".part";
@@ -131,124 +534,434 @@ public class SftpUploader {
         if (dryRun) {
             final String msg = "[DRY-RUN] Would upload " + localFile + " -> " + remoteFinal;
             logger.info(msg::toString);
-            return;
+            return 0;
         }
         
+        final SFTPClient sftp = session.sftp();
+        final long start = System.nanoTime();
         final String startMsg = "Uploading " + localFile + " -> " + remoteFinal;
-        logger.info(startMsg::toString);
-        sftp.put(localFile.toString(), remoteTemp);
+        logger.fine(startMsg::toString);
+        final long bytes = transfer(session, localFile, remoteTemp);
+        long t = times.since(PhaseTimes.Phase.PUT, start);
         try { sftp.rm(remoteFinal); } catch (IOException ignored) {}
+        t = times.since(PhaseTimes.Phase.RM, t);
         sftp.rename(remoteTemp, remoteFinal);
+        times.since(PhaseTimes.Phase.RENAME, t);
+        logUploaded(folder, localFile, remoteFinal, bytes, System.nanoTime() - start);
+        return bytes;
     }
     
-    private void postAction(Config.FolderConfig folder, Path localFile) throws IOException {
-        String action = folder.getPostAction();
-        if (action == null) action = "none";
+    /**
+     * Reserves server space for the next upload. On the cycle's first check, also warns if the free space
+     * is below the bytes pending in the folder.
+     */
+    private boolean fitsOnServer(SFTPClient sftp, String remoteDir, long size, long pendingBytes, Path localDir,
+                                 PhaseTimes times) {
+        if (pendingBytes > size) {
+            final long available = capacity.available(sftp, remoteDir, times);
+            if (available >= 0 && available < pendingBytes) {
+                final String warn = String.format(Locale.ROOT, "Server has %d MiB free in %s for %d MiB pending in %s",
+                        available / (1024 * 1024), remoteDir, pendingBytes / (1024 * 1024), localDir);
+                logger.warning(warn);
+            }
+        }
+        return capacity.tryReserve(sftp, remoteDir, size, times);
+    }
+    
+    /** Logs the phase breakdown of a file that took longer than slowFileThresholdSeconds. */
+    private void logIfSlow(Path file, long nanos, PhaseTimes times) {
+        final Integer threshold = config.getSlowFileThresholdSeconds();
+        if (threshold == null || nanos < TimeUnit.SECONDS.toNanos(threshold)) return;
+        final String warn = String.format(Locale.ROOT, "Slow file %s: %d ms (%s)",
+                file, TimeUnit.NANOSECONDS.toMillis(nanos), times);
+        logger.warning(warn);
+    }
+    
+    /**
+     * Handles a file whose content was already delivered to the remote directory: "skip" leaves it out,
+     * "copy" creates it from the earlier copy on the server. The earlier copy must still exist with the same size.
+     *
+     * @return true if the file needs no upload
+     */
+    private boolean deduplicate(Config.FolderConfig folder, SFTPClient sftp, String remoteDir, Path localFile,
+                                long size, String contentKey) {
+        final String previous = delivered.lookup(remoteDir, contentKey);
+        if (previous == null) return false;
+        try {
+            if (sftp.stat(previous).getSize() != size) return false;
+        } catch (IOException e) {
+            // Picked up or removed on the server
+            delivered.forget(remoteDir, contentKey);
+            return false;
+        }
         
-        switch (action.toLowerCase()) {
-            case "archive": {
-                final String archiveDirStr = folder.getArchiveDir();
-                if (archiveDirStr == null || archiveDirStr.isEmpty()) {
-                    final String warn = "archiveDir not set; skipping archive for " + localFile;
-                    logger.warning(warn);
-                    return;
-                }
-                final Path archiveDir = Paths.get(archiveDirStr);
-                Path target = archiveDir.resolve(localFile.getFileName());
-                
-                if (dryRun) {
-                    final String msg = "[DRY-RUN] Would move " + localFile + " -> " + target;
-                    logger.info(msg::toString);
-                    return;
-                }
-                
-                Files.createDirectories(archiveDir);
-                if (Files.exists(target)) {
-                    final String name = localFile.getFileName().toString();
-                    final int dot = name.lastIndexOf('.');
-                    final String base = (dot > 0) ? name.substring(0, dot) : name;
-                    final String ext  = (dot > 0) ? name.substring(dot) : "";
-                    target = archiveDir.resolve(base + "_" + Instant.now().toEpochMilli() + ext);
-                }
-                Files.move(localFile, target, StandardCopyOption.ATOMIC_MOVE);
-                
-                final String fine = "Archived " + localFile + " -> " + target;
-                logger.fine(fine);
-                break;
+        final String remoteFinal = joinRemote(remoteDir, localFile.getFileName().toString());
+        if (previous.equals(remoteFinal) || "skip".equalsIgnoreCase(folder.getDedup())) {
+            final String msg = (dryRun ? "[DRY-RUN] Would skip " : "Skipped ") + localFile
+                    + ": identical content already delivered as " + previous;
+            logger.info(msg::toString);
+            return true;
+        }
+        
+        if (copyDataUnsupported) return false;
+        if (dryRun) {
+            final String msg = "[DRY-RUN] Would copy " + previous + " -> " + remoteFinal + " on the server";
+            logger.info(msg::toString);
+            return true;
+        }
+        final String remoteTemp = remoteFinal + ".part";
+        try {
+            SftpExtensions.copyData(sftp, previous, remoteTemp);
+            try { sftp.rm(remoteFinal); } catch (IOException ignored) {}
+            sftp.rename(remoteTemp, remoteFinal);
+        } catch (IOException e) {
+            if (SftpExtensions.isUnsupported(e)) {
+                copyDataUnsupported = true;
+                logger.info("Server does not support copy-data; duplicate files are uploaded again.");
+            } else {
+                logger.warning("Server-side copy of " + previous + " failed: " + e.getMessage() + "; uploading instead.");
             }
-            case "delete": {
-                if (dryRun) {
-                    final String msg = "[DRY-RUN] Would delete " + localFile;
-                    logger.info(msg::toString);
-                    return;
-                }
-                Files.deleteIfExists(localFile);
-                final String fine = "Deleted " + localFile;
-                logger.fine(fine);
+            return false;
+        }
+        delivered.record(remoteDir, contentKey, remoteFinal);
+        final String msg = "Copied " + previous + " -> " + remoteFinal + " on the server (identical to " + localFile + ")";
+        logger.info(msg::toString);
+        return true;
+    }
+    
+    /**
+     * Checks the file against the cycle's listing of the remote directory. A remote file with the same name
+     * and size (and, depending on the reconcile mode, not older than the local file or with the recorded
+     * content) is complete, e.g. because an earlier run stopped before the post action.
+     *
+     * @return true if the file needs no upload
+     */
+    private boolean alreadyOnServer(Config.FolderConfig folder, SFTPClient sftp, Map<String, Map<String, FileAttributes>> listings,
+                                    Set<String> names, String remoteDir, Path localFile, ScannedFile f, String contentKey,
+                                    PhaseTimes times) {
+        Map<String, FileAttributes> listing = listings.get(remoteDir);
+        if (listing == null) {
+            listing = listRemote(folder, sftp, remoteDir, names, times);
+            listings.put(remoteDir, listing);
+        }
+        final String name = localFile.getFileName().toString();
+        final FileAttributes remote = listing.get(name);
+        if (remote == null || remote.getSize() != f.size()) return false;
+        
+        final String remoteFinal = joinRemote(remoteDir, name);
+        switch (folder.getReconcile().toLowerCase()) {
+            case "mtime":
+                // Uploads do not carry the local mtime, so a complete copy is at least as new as the local file
+                if (remote.getMtime() < f.lastModifiedMillis() / 1000) return false;
+                break;
+            case "checksum":
+                if (!remoteFinal.equals(delivered.lookup(remoteDir, contentKey))) return false;
                 break;
+            default:
+                break;
+        }
+        final String msg = (dryRun ? "[DRY-RUN] Would skip " : "Skipped ") + localFile + ": already complete on the server as "
+                + remoteFinal;
+        logger.info(msg::toString);
+        return true;
+    }
+    
+    /**
+     * Lists the regular files of the remote directory that have a name of this cycle, and removes orphaned
+     * {@code .part} files on the way. A directory that cannot be listed counts as empty.
+     */
+    private Map<String, FileAttributes> listRemote(Config.FolderConfig folder, SFTPClient sftp, String remoteDir,
+                                                   Set<String> names, PhaseTimes times) {
+        final Map<String, FileAttributes> listing = new HashMap<>();
+        final long start = System.nanoTime();
+        final List<RemoteResourceInfo> entries;
+        try {
+            entries = sftp.ls(remoteDir, e -> names.contains(e.getName()) || e.getName().endsWith(".part"));
+        } catch (IOException e) {
+            final String fine = "Cannot list " + remoteDir + " for reconciliation: " + e.getMessage();
+            logger.fine(fine);
+            return listing;
+        } finally {
+            times.since(PhaseTimes.Phase.LS, start);
+        }
+        
+        final int orphanSeconds = (folder.getOrphanPartSeconds() != null) ? folder.getOrphanPartSeconds() : DEFAULT_ORPHAN_PART_SECONDS;
+        final long now = System.currentTimeMillis() / 1000;
+        for (RemoteResourceInfo e : entries) {
+            final String name = e.getName();
+            if (!name.endsWith(".part")) {
+                if (e.isRegularFile()) listing.put(name, e.getAttributes());
+                continue;
+            }
+            // A part file of a file that is still here may be resumed; the rest is left over from aborted uploads
+            final String base = name.substring(0, name.length() - ".part".length());
+            if (orphanSeconds == 0 || names.contains(base) || now - e.getAttributes().getMtime() < orphanSeconds) continue;
+            removeOrphanPart(sftp, e.getPath());
+        }
+        return listing;
+    }
+    
+    private void removeOrphanPart(SFTPClient sftp, String path) {
+        if (dryRun) {
+            final String msg = "[DRY-RUN] Would remove orphaned " + path;
+            logger.info(msg::toString);
+            return;
+        }
+        try {
+            sftp.rm(path);
+            final String msg = "Removed orphaned " + path;
+            logger.info(msg::toString);
+        } catch (IOException e) {
+            logger.warning("Could not remove orphaned " + path + ": " + e.getMessage());
+        }
+    }
+    
+    private static boolean isReconcile(Config.FolderConfig folder) {
+        return folder.getReconcile() != null && !"none".equalsIgnoreCase(folder.getReconcile());
+    }
+    
+    private String contentKeyOf(ScannedFile f, Path p, PhaseTimes times) throws IOException {
+        final long start = System.nanoTime();
+        try {
+            return hashes.keyOf(p, f.size(), f.lastModifiedMillis());
+        } finally {
+            times.since(PhaseTimes.Phase.HASH, start);
+        }
+    }
+    
+    private static boolean isDedup(Config.FolderConfig folder) {
+        return folder.getDedup() != null && !"none".equalsIgnoreCase(folder.getDedup());
+    }
+    
+    /** One INFO line per file; the fields are also emitted as JSON attributes with log format "json". */
+    private void logUploaded(Config.FolderConfig folder, Path localFile, String remoteFinal, long bytes, long nanos) {
+        if (!logger.isLoggable(Level.INFO)) return;
+        
+        final long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+        final long bytesPerSecond = (nanos > 0) ? (long) (bytes / (nanos / 1e9)) : 0;
+        final Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("event", "uploaded");
+        fields.put("file", localFile.toString());
+        fields.put("remote", remoteFinal);
+        fields.put("folder", folder.getPath());
+        fields.put("host", config.getSftp().getHost());
+        fields.put("size", bytes);
+        fields.put("durationMs", millis);
+        fields.put("bytesPerSecond", bytesPerSecond);
+        
+        final LogRecord rec = new LogRecord(Level.INFO, String.format(Locale.ROOT,
+                "Uploaded %s -> %s (%d bytes in %d ms, %d KiB/s)", localFile, remoteFinal, bytes, millis, bytesPerSecond / 1024));
+        rec.setLoggerName(logger.getName());
+        rec.setParameters(new Object[] { fields });
+        logger.log(rec);
+    }
+    
+    /**
+     * Streams the local file to the remote path with the session's pipeline settings.
+     * Unlike {@link SFTPClient#put}, the number of unacknowledged writes and the write size are tunable,
+     * which is what limits throughput on high-latency links.
+     */
+    private long transfer(SftpSessionPool.Session session, Path localFile, String remotePath) throws IOException {
+        final SFTPClient sftp = session.sftp();
+        final PipelineTuner tuner = session.tuner();
+        final BasicFileAttributes attrs = Files.readAttributes(localFile, BasicFileAttributes.class);
+        final long offset = resumeOffset(sftp, localFile, remotePath, attrs);
+        final Set<OpenMode> modes = (offset > 0)
+                ? EnumSet.of(OpenMode.WRITE, OpenMode.CREAT)
+                : EnumSet.of(OpenMode.WRITE, OpenMode.CREAT, OpenMode.TRUNC);
+        final long start = System.nanoTime();
+        long bytes = 0;
+        int depth;
+        int chunk;
+        
+        MemoryBudget.Reservation reservation = null;
+        try (RemoteFile rf = sftp.open(remotePath, modes)) {
+            final int maxPayload = sftp.getSFTPEngine().getSubsystem().getRemoteMaxPacketSize()
+                    - rf.getOutgoingPacketOverhead();
+            chunk = Math.max(1, Math.min(tuner.chunkSize(), maxPayload));
+            try {
+                reservation = budget.reserve(tuner.depth(), chunk);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for transfer buffer memory");
             }
-            case "none":
-            default: {
-                final String fine = "Post action 'none' for " + localFile;
+            depth = reservation.depth();
+            if (depth < tuner.depth()) {
+                final String fine = "Memory budget: uploading " + localFile + " with pipeline depth " + depth
+                        + " instead of " + tuner.depth();
                 logger.fine(fine);
             }
+            
+            final InFlightTransfer progress = new InFlightTransfer(localFile, remotePath, attrs.size(),
+                    attrs.lastModifiedTime().toMillis(), offset, depth, chunk, () -> pool.abort(session));
+            inFlight.put(localFile, progress);
+            try (InputStream in = Files.newInputStream(localFile);
+                 OutputStream out = rf.new RemoteFileOutputStream(offset, depth)) {
+                in.skipNBytes(offset);
+                final byte[] buf = new byte[chunk];
+                int n;
+                while ((n = in.readNBytes(buf, 0, chunk)) > 0) {
+                    out.write(buf, 0, n);
+                    progress.advance(n);
+                    bytes += n;
+                }
+            } finally {
+                inFlight.remove(localFile);
+            }
+        } finally {
+            if (reservation != null) budget.release(reservation);
+        }
+        if (offset > 0) {
+            resumeStore.remove(localFile);
+        }
+        
+        // A transfer with a reduced pipeline says nothing about the configured depth
+        if (depth == tuner.depth() && tuner.observeTransfer(bytes, System.nanoTime() - start, chunk)) {
+            final String fine = String.format(Locale.ROOT, "Pipeline depth raised to %d (RTT %.1f ms)",
+                    tuner.depth(), tuner.rttMillis());
+            logger.fine(fine);
+        }
+        return bytes;
+    }
+    
+    /**
+     * Returns the offset to continue an aborted upload from, or 0 to start over.
+     * A checkpoint is only trusted if the local file is unchanged and the remote part file
+     * is at least as long as the confirmed offset.
+     */
+    private long resumeOffset(SFTPClient sftp, Path localFile, String remotePath, BasicFileAttributes attrs) {
+        final ResumeStore.Checkpoint cp = resumeStore.get(localFile);
+        if (cp == null) return 0;
+        
+        if (cp.size != attrs.size()
+                || cp.lastModifiedMillis != attrs.lastModifiedTime().toMillis()
+                || !cp.remotePath.equals(remotePath)) {
+            resumeStore.remove(localFile);
+            return 0;
+        }
+        try {
+            final long remoteSize = sftp.stat(remotePath).getSize();
+            if (remoteSize >= cp.offset && remoteSize <= cp.size) {
+                final String msg = "Resuming " + localFile + " at " + cp.offset + "/" + cp.size + " bytes";
+                logger.info(msg::toString);
+                return cp.offset;
+            }
+        } catch (IOException e) {
+            // Part file is gone; start over.
         }
+        resumeStore.remove(localFile);
+        return 0;
     }
     
-    private void ensureRemoteDir(SFTPClient sftp, String remoteDir) throws IOException {
+    /** Resolves the (possibly templated) remote directory for one file. */
+    private String remoteDirFor(String template, String folderName, String fileName, long mtimeMillis) {
+        final RemotePathTemplate compiled = templates.computeIfAbsent(template, RemotePathTemplate::compile);
+        if (compiled.isConstant()) {
+            return normalizeRemoteDir(template);
+        }
+        if (hostName == null) {
+            hostName = HostNames.localHostName();
+        }
+        return normalizeRemoteDir(compiled.resolve(new RemotePathTemplate.Context(hostName, folderName), fileName, mtimeMillis));
+    }
+    
+    /**
+     * Makes sure the remote directory exists. Directories seen before are not checked again, so partitioned
+     * target paths cost a round trip only for each new directory. A new session still measures one
+     * {@code stat} for its pipeline tuner.
+     */
+    private void ensureRemoteDir(SFTPClient sftp, String remoteDir, PipelineTuner tuner, PhaseTimes times) throws IOException {
+        if (knownRemoteDirs.contains(remoteDir) && tuner.rttMillis() >= 0) {
+            return;
+        }
         if (dryRun) {
             final String msg = "[DRY-RUN] Would ensure remote dir: " + remoteDir;
             logger.fine(msg::toString);
+            knownRemoteDirs.add(remoteDir);
             return;
         }
+        final long start = System.nanoTime();
         try {
             sftp.stat(remoteDir);
+            tuner.observeRoundTrip(System.nanoTime() - start);
         } catch (IOException e) {
-            sftp.mkdirs(remoteDir);
+            createRemoteDir(sftp, remoteDir);
+        } finally {
+            times.since(PhaseTimes.Phase.STAT, start);
         }
+        knownRemoteDirs.add(remoteDir);
     }
     
-    /** Always uses '/' for remote paths (SFTP servers expect POSIX-style separators). */
-    private static String joinRemote(String dir, String name) {
-        return dir.endsWith("/") ? dir + name : dir + "/" + name; // always '/' for SFTP paths
-    }
-    
-    /** Normalizes remote root to POSIX style and collapses duplicate slashes. */
-    private static String normalizeRemoteDir(String dir) {
-        if (dir == null || dir.isEmpty()) return "/";
-        String d = dir.replace('\\', '/').trim();
-        // collapse multiple slashes except a possible leading double slash used by some servers
-        return d.replaceAll("(?<!^)/{2,}", "/");
-    }
-    
-    private static List<PathMatcher> buildMatchers(FileSystem fs, List<String> patterns) {
-        final List<PathMatcher> matchers = new ArrayList<>();
-        for (String p : patterns) {
-            final String spec = (p.contains(":")) ? p : "glob:" + p; // default to glob
-            matchers.add(fs.getPathMatcher(spec));
+    /** One mkdir if the parent is known to exist, otherwise the whole chain. */
+    private void createRemoteDir(SFTPClient sftp, String remoteDir) throws IOException {
+        final int slash = remoteDir.lastIndexOf('/', remoteDir.length() - 2);
+        final String parent = (slash > 0) ? remoteDir.substring(0, slash) : null;
+        if (parent != null && knownRemoteDirs.contains(parent)) {
+            try {
+                sftp.mkdir(remoteDir);
+                return;
+            } catch (IOException e) {
+                // Created concurrently, or the parent is gone: fall back to the full chain
+            }
+        }
+        sftp.mkdirs(remoteDir);
+        for (String dir = parent; dir != null; ) {
+            knownRemoteDirs.add(dir);
+            final int i = dir.lastIndexOf('/');
+            dir = (i > 0) ? dir.substring(0, i) : null;
         }
-        return matchers;
     }
     
-    private static List<Path> listMatchingFiles(Path dir, List<PathMatcher> matchers) {
-        final List<Path> result = new ArrayList<>();
-        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
-            for (Path p : ds) {
-                if (Files.isRegularFile(p) && matchesAny(p.getFileName(), matchers)) {
-                    result.add(p);
+    /** Returns the claimer for shared folders, or null if the folder is not shared (or in dry-run). */
+    private FileClaimer claimerFor(Config.FolderConfig folder, Path localDir) {
+        if (dryRun || !"rename".equalsIgnoreCase(folder.getClaimMode())) {
+            return null;
+        }
+        final String nodeId = (config.getNodeId() != null && !config.getNodeId().isEmpty())
+                ? config.getNodeId() : HostNames.localHostName();
+        final int lease = (folder.getClaimLeaseSeconds() != null) ? folder.getClaimLeaseSeconds() : 900;
+        synchronized (claimers) {
+            FileClaimer claimer = claimers.get(localDir);
+            if (claimer == null || !claimer.hasLease(lease)) {
+                if (claimer != null) claimer.stopRenewal();
+                if (leaseTimer == null) {
+                    leaseTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+                        final Thread t = new Thread(r, "claim-lease");
+                        t.setDaemon(true);
+                        return t;
+                    });
                 }
+                claimer = new FileClaimer(localDir, nodeId, lease, logger);
+                claimer.startRenewal(leaseTimer);
+                claimers.put(localDir, claimer);
             }
-        } catch (IOException ignored) {
-            // Listing failure is non-fatal; caller logs cycle-level errors.
+            return claimer;
         }
-        return result;
     }
     
-    private static boolean matchesAny(Path filename, List<PathMatcher> matchers) {
-        for (PathMatcher m : matchers) {
-            if (m.matches(filename)) return true;
+    /** Stops renewing leases; other nodes take over remaining claims once they expire. */
+    private void stopLeaseRenewal() {
+        synchronized (claimers) {
+            if (leaseTimer != null) leaseTimer.shutdownNow();
         }
-        return false;
+    }
+    
+    /** Cross-folder priority of the folder; unset means 0. */
+    public static int priorityOf(Config.FolderConfig folder) {
+        return (folder.getPriority() != null) ? folder.getPriority() : 0;
+    }
+    
+    /** Always uses '/' for remote paths (SFTP servers expect POSIX-style separators). */
+    static String joinRemote(String dir, String name) {
+        return dir.endsWith("/") ? dir + name : dir + "/" + name; // always '/' for SFTP paths
+    }
+    
+    /** Normalizes remote root to POSIX style and collapses duplicate slashes. */
+    static String normalizeRemoteDir(String dir) {
+        if (dir == null || dir.isEmpty()) return "/";
+        String d = dir.replace('\\', '/').trim();
+        // collapse multiple slashes except a possible leading double slash used by some servers
+        return d.replaceAll("(?<!^)/{2,}", "/");
     }
     
     /* ---------------- Host key verification ---------------- */
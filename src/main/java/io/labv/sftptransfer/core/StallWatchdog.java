@@ -0,0 +1,68 @@
+package io.labv.sftptransfer.core;
+
+import java.util.Collection;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Aborts uploads whose throughput stays below a floor for a whole window, so that one hung transfer
+ * cannot block its folder. Checks the streaming uploads once per second on its own daemon thread.
+ */
+final class StallWatchdog {
+    
+    private final Collection<InFlightTransfer> transfers;
+    private final long minBytesPerSecond;
+    private final long windowNanos;
+    private final Consumer<InFlightTransfer> onStall;
+    private final Logger logger;
+    private final ScheduledExecutorService timer;
+    
+    StallWatchdog(Collection<InFlightTransfer> transfers, long minBytesPerSecond, int windowSeconds,
+                  Consumer<InFlightTransfer> onStall, Logger logger) {
+        this.transfers = transfers;
+        this.minBytesPerSecond = minBytesPerSecond;
+        this.windowNanos = TimeUnit.SECONDS.toNanos(windowSeconds);
+        this.onStall = onStall;
+        this.logger = logger;
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread t = new Thread(r, "stall-watchdog");
+            t.setDaemon(true);
+            return t;
+        });
+        timer.scheduleWithFixedDelay(this::check, 1, 1, TimeUnit.SECONDS);
+    }
+    
+    void stop() {
+        timer.shutdownNow();
+    }
+    
+    private void check() {
+        final long now = System.nanoTime();
+        for (InFlightTransfer t : transfers) {
+            if (t.isStalled()) continue;
+            final long elapsed = now - t.windowStartNanos();
+            if (elapsed < windowNanos) continue;
+            
+            final long bytes = t.bytesWritten() - t.windowStartBytes();
+            final double rate = bytes / (elapsed / 1e9);
+            if (rate >= minBytesPerSecond) {
+                t.startWindow(now);
+                continue;
+            }
+            t.markStalled();
+            final String warn = String.format(Locale.ROOT,
+                    "Upload of %s stalled at %d/%d bytes (%.0f bytes/s over %d s, floor %d bytes/s); aborting it.",
+                    t.localFile(), t.bytesWritten(), t.size(), rate, TimeUnit.NANOSECONDS.toSeconds(elapsed), minBytesPerSecond);
+            logger.warning(warn);
+            try {
+                onStall.accept(t);
+            } catch (RuntimeException e) {
+                logger.warning("Could not abort stalled upload of " + t.localFile() + ": " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package io.labv.sftptransfer.core;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Coordinates folders with different priorities that share one uplink.
+ * <p>
+ * Each folder announces its pending files. Before starting a file, a folder waits while any folder
+ * with a higher priority still has pending files, so urgent folders get the bandwidth first.
+ * The wait is bounded so that low-priority folders cannot starve behind a permanent backlog.
+ */
+final class UploadArbiter {
+    
+    static final long MAX_WAIT_MILLIS = 60_000;
+    
+    /** priority -> number of files announced but not yet finished */
+    private final TreeMap<Integer, Integer> pending = new TreeMap<>();
+    
+    synchronized void announce(int priority, int files) {
+        if (files == 0) return;
+        final int remaining = pending.getOrDefault(priority, 0) + files;
+        if (remaining <= 0) {
+            pending.remove(priority);
+        } else {
+            pending.put(priority, remaining);
+        }
+        notifyAll();
+    }
+    
+    /** Marks one file of the given priority as finished (successfully or not). */
+    synchronized void finished(int priority) {
+        announce(priority, -1);
+    }
+    
+    /** Blocks while higher-priority work is pending, at most {@link #MAX_WAIT_MILLIS}. */
+    synchronized void awaitTurn(int priority) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + MAX_WAIT_MILLIS;
+        long remaining;
+        while (hasHigher(priority) && (remaining = deadline - System.currentTimeMillis()) > 0) {
+            wait(remaining);
+        }
+    }
+    
+    private boolean hasHigher(int priority) {
+        final Map.Entry<Integer, Integer> top = pending.lastEntry();
+        return top != null && top.getKey() > priority;
+    }
+}
@@ -0,0 +1,48 @@
+package io.labv.sftptransfer.core;
+
+import io.labv.sftptransfer.config.Config;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * State that outlives a single uploader: resume checkpoints, failure counts, the delivery index and the
+ * files whose post-action is still pending. After a config reload, the retiring and the new uploader share
+ * one instance, so they neither overwrite each other's state files nor upload a file again that still
+ * waits for its post-action in the other uploader.
+ */
+public final class UploaderState {
+    
+    private final Path stateDir;
+    final ResumeStore resumeStore;
+    final FailureTracker failures;
+    final DeliveredIndex delivered;
+    final Set<Path> pendingPostActions = ConcurrentHashMap.newKeySet();
+    
+    private UploaderState(Path stateDir, int maxIndexEntries, Logger logger) {
+        this.stateDir = stateDir;
+        this.resumeStore = new ResumeStore(stateDir, logger);
+        this.failures = new FailureTracker(stateDir, logger);
+        this.delivered = new DeliveredIndex(stateDir, maxIndexEntries, logger);
+    }
+    
+    /** Loads the state from the config's state directory. */
+    public static UploaderState open(Config config, Logger logger) {
+        return new UploaderState(stateDirectory(config),
+                MemoryBudget.of(config).maxIndexEntries(DeliveredIndex.DEFAULT_MAX_ENTRIES), logger);
+    }
+    
+    /** True if the config uses the state directory of this state. */
+    public boolean isFor(Config config) {
+        return Objects.equals(stateDir, stateDirectory(config));
+    }
+    
+    private static Path stateDirectory(Config config) {
+        final String dir = config.getStateDirectory();
+        return Paths.get((dir != null && !dir.isEmpty()) ? dir : "state");
+    }
+}
@@ -0,0 +1,133 @@
+package io.labv.sftptransfer.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * Hands log records to a background thread that writes them to the wrapped handlers,
+ * so threads doing I/O never wait for console or file writes.
+ * <p>
+ * The buffer is bounded. When it is full, records below WARNING are dropped with policy "drop"
+ * (the number of dropped records is reported later); WARNING and above, and all records with
+ * policy "block", wait for space.
+ */
+public class AsyncLogHandler extends Handler {
+    
+    private final List<Handler> delegates;
+    private final BlockingQueue<LogRecord> queue;
+    private final boolean dropOnOverflow;
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread worker;
+    private final Object writeLock = new Object();
+    private volatile boolean closed = false;
+    
+    public AsyncLogHandler(List<Handler> delegates, int capacity, boolean dropOnOverflow) {
+        this.delegates = new ArrayList<>(delegates);
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.dropOnOverflow = dropOnOverflow;
+        this.worker = new Thread(this::drain, "async-log");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+    
+    @Override
+    public void publish(LogRecord record) {
+        if (closed || !isLoggable(record)) {
+            return;
+        }
+        // Caller information is inferred lazily from the stack; capture it on the logging thread
+        record.getSourceClassName();
+        
+        if (dropOnOverflow && record.getLevel().intValue() < Level.WARNING.intValue()) {
+            if (!queue.offer(record)) {
+                dropped.incrementAndGet();
+            }
+            return;
+        }
+        try {
+            queue.put(record);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /** Also applies the level to the wrapped handlers, so that e.g. --log-level FINE reaches them. */
+    @Override
+    public synchronized void setLevel(Level newLevel) {
+        super.setLevel(newLevel);
+        for (Handler h : delegates) {
+            h.setLevel(newLevel);
+        }
+    }
+    
+    /** Number of records dropped since start because the buffer was full. */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+    
+    /** Waits (at most 5 seconds) until the buffered records are written, then flushes the wrapped handlers. */
+    @Override
+    public void flush() {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        try {
+            while (!queue.isEmpty() && System.nanoTime() < deadline) {
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (writeLock) {
+            for (Handler h : delegates) {
+                h.flush();
+            }
+        }
+    }
+    
+    @Override
+    public void close() {
+        closed = true;
+        flush();
+        worker.interrupt();
+        for (Handler h : delegates) {
+            h.close();
+        }
+    }
+    
+    private void drain() {
+        long reportedDrops = 0;
+        while (true) {
+            final LogRecord record;
+            try {
+                record = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            final long drops = dropped.get();
+            if (drops > reportedDrops) {
+                write(new LogRecord(Level.WARNING, (drops - reportedDrops) + " log record(s) dropped (log buffer full)"));
+                reportedDrops = drops;
+            }
+            write(record);
+        }
+    }
+    
+    private void write(LogRecord record) {
+        synchronized (writeLock) {
+            for (Handler h : delegates) {
+                try {
+                    h.publish(record);
+                } catch (RuntimeException e) {
+                    reportError(null, e, ErrorManager.WRITE_FAILURE);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package io.labv.sftptransfer.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.ErrorManager;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.logging.StreamHandler;
+
+/**
+ * Writes to {@code <directory>/yyyyMMdd-labv-sftp-transfer.log} and switches to a new file with the
+ * first record of each new day, applying the retention to old files at every switch.
+ * The file is only opened when the first record is written.
+ */
+public class DailyRotatingFileHandler extends StreamHandler {
+    
+    static final String FILE_SUFFIX = "-labv-sftp-transfer.log";
+    private static final DateTimeFormatter DATE = DateTimeFormatter.ofPattern("yyyyMMdd");
+    
+    private final File directory;
+    private final int retentionDays;
+    private final Logger statusLogger;
+    private LocalDate currentDate;
+    
+    /**
+     * @param statusLogger name under which messages about deleted old log files are written to the new file;
+     *                     may be null. The messages are written by this handler directly, never through the
+     *                     logger: the handler may run on the only thread that drains the logger's queue.
+     */
+    public DailyRotatingFileHandler(File directory, int retentionDays, Logger statusLogger) {
+        this.directory = directory;
+        this.retentionDays = retentionDays;
+        this.statusLogger = statusLogger;
+    }
+    
+    @Override
+    public synchronized void publish(LogRecord record) {
+        // StreamHandler.isLoggable() is false until a stream is set, so check level and filter here
+        if (record == null || record.getLevel().intValue() < getLevel().intValue()
+                || (getFilter() != null && !getFilter().isLoggable(record))) {
+            return;
+        }
+        LocalDate today = LocalDate.now();
+        if (!today.equals(currentDate)) {
+            for (LogRecord status : roll(today)) {
+                if (isLoggable(status)) super.publish(status);
+            }
+        }
+        super.publish(record);
+        // Records must reach the file promptly for a long-running daemon; the write already happens off the hot path
+        flush();
+    }
+    
+    /** Opens the file for the day and returns the status records of the retention run. */
+    private List<LogRecord> roll(LocalDate today) {
+        try {
+            if (!directory.exists()) {
+                directory.mkdirs();
+            }
+            File file = new File(directory, today.format(DATE) + FILE_SUFFIX);
+            setOutputStream(new FileOutputStream(file, true)); // closes the previous file
+            currentDate = today;
+        } catch (IOException | SecurityException e) {
+            reportError("Failed to open log file in " + directory.getAbsolutePath(), e, ErrorManager.OPEN_FAILURE);
+            return List.of();
+        }
+        return deleteOldLogFiles();
+    }
+    
+    private List<LogRecord> deleteOldLogFiles() {
+        final List<LogRecord> status = new ArrayList<>();
+        long cutoff = System.currentTimeMillis() - (retentionDays * 86400_000L);
+        File[] files = directory.listFiles((d, name) -> name.endsWith(FILE_SUFFIX));
+        
+        if (files == null) {
+            return status;
+        }
+        
+        for (File file : files) {
+            if (file.lastModified() < cutoff) {
+                if (file.delete()) {
+                    status.add(statusRecord(Level.INFO, "Deleted old log file: " + file.getName()));
+                } else {
+                    reportError("Could not delete log file: " + file.getName(), null, ErrorManager.GENERIC_FAILURE);
+                    status.add(statusRecord(Level.WARNING, "Could not delete log file: " + file.getName()));
+                }
+            }
+        }
+        if (statusLogger == null) status.clear();
+        return status;
+    }
+    
+    private LogRecord statusRecord(Level level, String message) {
+        final LogRecord r = new LogRecord(level, message);
+        r.setLoggerName((statusLogger != null) ? statusLogger.getName() : null);
+        r.setSourceClassName(DailyRotatingFileHandler.class.getName());
+        r.setSourceMethodName("deleteOldLogFiles");
+        return r;
+    }
+}
@@ -0,0 +1,31 @@
+package io.labv.sftptransfer.util;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+public class HostNames {
+    
+    private HostNames() {
+        
+    }
+    
+    /** Short name of the local host, falling back to the usual environment variables. */
+    public static String localHostName() {
+        
+        try {
+            String name = InetAddress.getLocalHost().getHostName();
+            if (name != null && !name.isEmpty()) {
+                int dot = name.indexOf('.');
+                return dot > 0 ? name.substring(0, dot) : name;
+            }
+        } catch (UnknownHostException ignored) {
+            // fall through to environment
+        }
+        
+        String env = System.getenv("COMPUTERNAME");
+        if (env == null || env.isEmpty()) {
+            env = System.getenv("HOSTNAME");
+        }
+        return (env != null && !env.isEmpty()) ? env : "localhost";
+    }
+}
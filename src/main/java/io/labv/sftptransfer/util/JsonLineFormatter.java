@@ -0,0 +1,89 @@
+package io.labv.sftptransfer.util;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.util.Map;
+import java.util.logging.Formatter;
+import java.util.logging.LogRecord;
+
+/**
+ * Formats each record as one JSON object per line.
+ * <p>
+ * A {@link Map} passed as the first record parameter is added as top-level fields, which is how
+ * per-file transfer details (size, duration, rate, folder, host) are emitted.
+ */
+public class JsonLineFormatter extends Formatter {
+    
+    @Override
+    public String format(LogRecord record) {
+        
+        StringBuilder sb = new StringBuilder(256);
+        sb.append('{');
+        appendField(sb, "ts", Instant.ofEpochMilli(record.getMillis()).toString());
+        sb.append(',');
+        appendField(sb, "level", record.getLevel().getName());
+        sb.append(',');
+        appendField(sb, "source", record.getSourceClassName());
+        sb.append(',');
+        appendField(sb, "threadId", record.getLongThreadID());
+        sb.append(',');
+        appendField(sb, "msg", formatMessage(record));
+        
+        Object[] params = record.getParameters();
+        if (params != null && params.length > 0 && params[0] instanceof Map<?, ?> fields) {
+            for (Map.Entry<?, ?> e : fields.entrySet()) {
+                sb.append(',');
+                appendField(sb, String.valueOf(e.getKey()), e.getValue());
+            }
+        }
+        
+        if (record.getThrown() != null) {
+            StringWriter sw = new StringWriter();
+            record.getThrown().printStackTrace(new PrintWriter(sw));
+            sb.append(',');
+            appendField(sb, "thrown", sw.toString());
+        }
+        
+        sb.append('}').append(System.lineSeparator());
+        return sb.toString();
+    }
+    
+    private static void appendField(StringBuilder sb, String name, Object value) {
+        
+        appendString(sb, name);
+        sb.append(':');
+        if (value == null) {
+            sb.append("null");
+        } else if (value instanceof Double d && !Double.isFinite(d)) {
+            sb.append("null");
+        } else if (value instanceof Number || value instanceof Boolean) {
+            sb.append(value);
+        } else {
+            appendString(sb, value.toString());
+        }
+    }
+    
+    private static void appendString(StringBuilder sb, String s) {
+        
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+        }
+        sb.append('"');
+    }
+}
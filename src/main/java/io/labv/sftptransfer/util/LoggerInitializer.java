@@ -5,13 +5,15 @@ import io.labv.sftptransfer.config.Config;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.*;
 
 
 public class LoggerInitializer {
     
+    private static final int DEFAULT_QUEUE_SIZE = 8192;
+    
     private LoggerInitializer() {
     
     }
@@ -36,33 +38,35 @@ public class LoggerInitializer {
         Logger logger = Logger.getLogger("labv-sftp-transfer");
         logger.setUseParentHandlers(false);
         
-        Formatter formatter = new SimpleFormatter();
+        List<Handler> handlers = new ArrayList<>();
         
         ConsoleHandler consoleHandler = new ConsoleHandler();
         consoleHandler.setLevel(Level.INFO);
-        consoleHandler.setFormatter(formatter);
-        logger.addHandler(consoleHandler);
+        consoleHandler.setFormatter(new SimpleFormatter());
+        handlers.add(consoleHandler);
         
         if (logConfig != null && logConfig.isEnableFileLogging()) {
             String dir = logConfig.getDirectory() != null ? logConfig.getDirectory() : "log";
-            String logFilePath = buildLogFilePath(dir);
             
-            try {
-                File logDir = new File(dir);
-                if (!logDir.exists()) {
-                    logDir.mkdirs();
-                }
-                
-                FileHandler fileHandler = new FileHandler(logFilePath, true);
-                fileHandler.setFormatter(formatter);
-                fileHandler.setLevel(Level.INFO);
-                logger.addHandler(fileHandler);
-                
-                deleteOldLogFiles(logDir, logConfig.getRetentionDays(), logger);
-                
-            } catch (IOException e) {
-                logger.warning("Failed to create log file: " + logFilePath);
-                e.printStackTrace();
+            // Opened with the first record and switched to a new file every day
+            DailyRotatingFileHandler fileHandler =
+                    new DailyRotatingFileHandler(new File(dir), logConfig.getRetentionDays(), logger);
+            fileHandler.setFormatter("json".equalsIgnoreCase(logConfig.getFormat())
+                    ? new JsonLineFormatter() : new SimpleFormatter());
+            fileHandler.setLevel(Level.INFO);
+            handlers.add(fileHandler);
+        }
+        
+        if (logConfig == null || logConfig.isAsync()) {
+            int capacity = (logConfig != null && logConfig.getQueueSize() > 0) ? logConfig.getQueueSize() : DEFAULT_QUEUE_SIZE;
+            boolean drop = logConfig == null || !"block".equalsIgnoreCase(logConfig.getOverflowPolicy());
+            AsyncLogHandler asyncHandler = new AsyncLogHandler(handlers, capacity, drop);
+            asyncHandler.setLevel(Level.INFO);
+            logger.addHandler(asyncHandler);
+            Runtime.getRuntime().addShutdownHook(new Thread(asyncHandler::flush));
+        } else {
+            for (Handler handler : handlers) {
+                logger.addHandler(handler);
             }
         }
         
@@ -70,30 +74,4 @@ public class LoggerInitializer {
         return logger;
     }
     
-    private static String buildLogFilePath(String directory) {
-        
-        String date = new SimpleDateFormat("yyyyMMdd").format(new Date());
-        return directory + "/" + date + "-labv-sftp-transfer.log";
-    }
-    
-    private static void deleteOldLogFiles(File dir, int retentionDays, Logger logger) {
-        
-        long cutoff = System.currentTimeMillis() - (retentionDays * 86400_000L);
-        File[] files = dir.listFiles((d, name) -> name.endsWith("-labv-sftp-transfer.log"));
-        
-        if (files == null) {
-            return;
-        }
-        
-        for (File file : files) {
-            if (file.lastModified() < cutoff) {
-                if (file.delete()) {
-                    logger.info("Deleted old log file: " + file.getName());
-                } else {
-                    logger.warning("Could not delete log file: " + file.getName());
-                }
-            }
-        }
-    }
-    
 }
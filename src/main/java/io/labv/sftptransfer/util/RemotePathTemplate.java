@@ -0,0 +1,146 @@
+package io.labv.sftptransfer.util;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * Remote directory with placeholders, parsed once and resolved per file.
+ * <ul>
+ *   <li>{@code {yyyy}}, {@code {MM}}, {@code {dd}}, {@code {HH}}: upload time (local time zone)</li>
+ *   <li>{@code {mtime:pattern}}: the file's modification time in a {@link DateTimeFormatter} pattern,
+ *       e.g. {@code {mtime:yyyy/MM}}</li>
+ *   <li>{@code {hostname}}: the local host name</li>
+ *   <li>{@code {folderName}}: the name of the local folder</li>
+ *   <li>{@code {hash:N}}: one of N buckets derived from the file name (CRC32), zero-padded, e.g. {@code 07}</li>
+ * </ul>
+ */
+public final class RemotePathTemplate {
+    
+    /** Values of the placeholders that do not depend on the file. */
+    public static final class Context {
+        final String hostname;
+        final String folderName;
+        
+        public Context(String hostname, String folderName) {
+            this.hostname = hostname;
+            this.folderName = folderName;
+        }
+    }
+    
+    private interface Part {
+        void append(StringBuilder out, Context ctx, String fileName, ZonedDateTime now, long mtimeMillis);
+    }
+    
+    private final String source;
+    private final List<Part> parts;
+    private final boolean constant;
+    
+    private RemotePathTemplate(String source, List<Part> parts, boolean constant) {
+        this.source = source;
+        this.parts = parts;
+        this.constant = constant;
+    }
+    
+    /**
+     * Parses the template.
+     *
+     * @throws IllegalArgumentException on an unknown placeholder, an invalid date pattern or an unclosed brace
+     */
+    public static RemotePathTemplate compile(String template) {
+        final List<Part> parts = new ArrayList<>();
+        boolean constant = true;
+        int i = 0;
+        while (i < template.length()) {
+            final int open = template.indexOf('{', i);
+            if (open < 0) {
+                parts.add(literal(template.substring(i)));
+                break;
+            }
+            if (open > i) {
+                parts.add(literal(template.substring(i, open)));
+            }
+            final int close = template.indexOf('}', open);
+            if (close < 0) {
+                throw new IllegalArgumentException("Unclosed '{' in remote path: " + template);
+            }
+            parts.add(placeholder(template.substring(open + 1, close)));
+            constant = false;
+            i = close + 1;
+        }
+        return new RemotePathTemplate(template, parts, constant);
+    }
+    
+    /** True if the template has no placeholders. */
+    public boolean isConstant() {
+        return constant;
+    }
+    
+    public String resolve(Context ctx, String fileName, long mtimeMillis) {
+        if (constant) return source;
+        final ZonedDateTime now = ZonedDateTime.now();
+        final StringBuilder out = new StringBuilder(source.length() + 16);
+        for (Part p : parts) {
+            p.append(out, ctx, fileName, now, mtimeMillis);
+        }
+        return out.toString();
+    }
+    
+    @Override
+    public String toString() {
+        return source;
+    }
+    
+    private static Part literal(String text) {
+        return (out, ctx, name, now, mtime) -> out.append(text);
+    }
+    
+    private static Part placeholder(String name) {
+        switch (name) {
+            case "yyyy": return (out, ctx, n, now, m) -> out.append(String.format(Locale.ROOT, "%04d", now.getYear()));
+            case "MM": return (out, ctx, n, now, m) -> out.append(String.format(Locale.ROOT, "%02d", now.getMonthValue()));
+            case "dd": return (out, ctx, n, now, m) -> out.append(String.format(Locale.ROOT, "%02d", now.getDayOfMonth()));
+            case "HH": return (out, ctx, n, now, m) -> out.append(String.format(Locale.ROOT, "%02d", now.getHour()));
+            case "hostname": return (out, ctx, n, now, m) -> out.append(ctx.hostname);
+            case "folderName": return (out, ctx, n, now, m) -> out.append(ctx.folderName);
+            default:
+                break;
+        }
+        if (name.startsWith("mtime:")) {
+            final DateTimeFormatter format;
+            try {
+                format = DateTimeFormatter.ofPattern(name.substring("mtime:".length()), Locale.ROOT);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid date pattern in {" + name + "}: " + e.getMessage());
+            }
+            final ZoneId zone = ZoneId.systemDefault();
+            return (out, ctx, n, now, m) -> format.formatTo(Instant.ofEpochMilli(m).atZone(zone), out);
+        }
+        if (name.startsWith("hash:")) {
+            final int buckets;
+            try {
+                buckets = Integer.parseInt(name.substring("hash:".length()));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid bucket count in {" + name + "}");
+            }
+            if (buckets < 2) {
+                throw new IllegalArgumentException("Bucket count in {" + name + "} must be >= 2");
+            }
+            final String format = "%0" + String.valueOf(buckets - 1).length() + "d";
+            return (out, ctx, n, now, m) -> out.append(String.format(Locale.ROOT, format, bucket(n, buckets)));
+        }
+        throw new IllegalArgumentException("Unknown placeholder {" + name + "} in remote path");
+    }
+    
+    private static long bucket(String fileName, int buckets) {
+        final CRC32 crc = new CRC32();
+        crc.update(fileName.getBytes(StandardCharsets.UTF_8));
+        return crc.getValue() % buckets;
+    }
+}